@@ -1,10 +1,14 @@
 package com.example.kafkaparsing.config;
 
+import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
@@ -19,6 +23,21 @@ public class KafkaConfig {
     @Value("${spring.kafka.bootstrap-servers:localhost:9092}")
     private String bootstrapServers;
 
+    @Value("${audit.forwarder.batch-size:65536}")
+    private int forwarderBatchSize;
+
+    @Value("${audit.forwarder.linger-ms:5}")
+    private int forwarderLingerMs;
+
+    @Value("${audit.repartition.topic:audit-correlation-repartition}")
+    private String repartitionTopic;
+
+    @Value("${audit.repartition.partitions:12}")
+    private int repartitionPartitions;
+
+    @Value("${audit.repartition.replication-factor:1}")
+    private short repartitionReplicationFactor;
+
     @Bean
     public ProducerFactory<String, Object> producerFactory() {
         Map<String, Object> configProps = new HashMap<>();
@@ -55,6 +74,9 @@ public class KafkaConfig {
         configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
         configProps.put(ProducerConfig.ACKS_CONFIG, "all");
         configProps.put(ProducerConfig.RETRIES_CONFIG, 3);
+        // Forwarding no longer waits on each send, let the producer batch
+        configProps.put(ProducerConfig.BATCH_SIZE_CONFIG, forwarderBatchSize);
+        configProps.put(ProducerConfig.LINGER_MS_CONFIG, forwarderLingerMs);
         
         // Force localhost for local development
         configProps.put("metadata.broker.list", "localhost:9092");
@@ -64,4 +86,41 @@ public class KafkaConfig {
         DefaultKafkaProducerFactory<String, String> factory = new DefaultKafkaProducerFactory<>(configProps);
         return new KafkaTemplate<>(factory);
     }
+
+    /**
+     * Byte array Kafka template for forwarding messages without decoding them to String
+     */
+    @Bean
+    public KafkaTemplate<String, byte[]> byteArrayKafkaTemplate() {
+        Map<String, Object> configProps = new HashMap<>();
+        configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        configProps.put(ProducerConfig.ACKS_CONFIG, "all");
+        configProps.put(ProducerConfig.RETRIES_CONFIG, 3);
+        // Forwarding no longer waits on each send, let the producer batch
+        configProps.put(ProducerConfig.BATCH_SIZE_CONFIG, forwarderBatchSize);
+        configProps.put(ProducerConfig.LINGER_MS_CONFIG, forwarderLingerMs);
+        
+        // Force localhost for local development
+        configProps.put("metadata.broker.list", "localhost:9092");
+        // Security protocol for local development
+        configProps.put("security.protocol", "PLAINTEXT");
+        
+        DefaultKafkaProducerFactory<String, byte[]> factory = new DefaultKafkaProducerFactory<>(configProps);
+        return new KafkaTemplate<>(factory);
+    }
+
+    /**
+     * Internal topic of the correlation repartition stage, created by KafkaAdmin at startup if missing.
+     * Changing its partition count moves correlation IDs between partitions, so size it up front.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "audit.repartition.enabled", havingValue = "true")
+    public NewTopic repartitionTopic() {
+        return TopicBuilder.name(repartitionTopic)
+                .partitions(repartitionPartitions)
+                .replicas(repartitionReplicationFactor)
+                .build();
+    }
 }
@@ -1,12 +1,20 @@
 package com.example.kafkaparsing.controller;
 
+import com.example.kafkaparsing.model.ReplayRequest;
+import com.example.kafkaparsing.service.ApiMetadataService;
+import com.example.kafkaparsing.service.CorrelationRepartitioner;
 import com.example.kafkaparsing.service.DynamicMessageProcessor;
+import com.example.kafkaparsing.service.ElasticsearchBulkIndexer;
+import com.example.kafkaparsing.service.KafkaMessageForwarder;
+import com.example.kafkaparsing.service.ListenerAutoscaler;
+import com.example.kafkaparsing.service.ReplayService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 
 /**
  * Controller for Audit Data Processor operations
@@ -19,6 +27,24 @@ public class AuditProcessorController {
     @Autowired
     private DynamicMessageProcessor dynamicMessageProcessor;
 
+    @Autowired
+    private ApiMetadataService apiMetadataService;
+
+    @Autowired
+    private ElasticsearchBulkIndexer bulkIndexer;
+
+    @Autowired
+    private KafkaMessageForwarder kafkaMessageForwarder;
+
+    @Autowired
+    private ListenerAutoscaler listenerAutoscaler;
+
+    @Autowired
+    private ReplayService replayService;
+
+    @Autowired
+    private CorrelationRepartitioner correlationRepartitioner;
+
     /**
      * Get audit processor statistics
      */
@@ -30,6 +56,13 @@ public class AuditProcessorController {
             Map<String, Object> response = new HashMap<>();
             response.put("status", "success");
             response.put("statistics", stats);
+            response.put("cleanup", dynamicMessageProcessor.getCleanupStatistics());
+            response.put("timeouts", dynamicMessageProcessor.getTimeoutStatistics());
+            response.put("metadataCache", apiMetadataService.getCacheStatistics());
+            response.put("indexer", bulkIndexer.getStatistics());
+            response.put("forwarder", kafkaMessageForwarder.getStatistics());
+            response.put("listeners", listenerAutoscaler.getStatistics());
+            response.put("repartition", correlationRepartitioner.getStatistics());
             response.put("message", "Audit processor is running");
             
             return ResponseEntity.ok(response);
@@ -42,6 +75,76 @@ public class AuditProcessorController {
         }
     }
 
+    /**
+     * Reload the API metadata cache from the database
+     */
+    @PostMapping("/metadata-cache/refresh")
+    public ResponseEntity<Map<String, Object>> refreshMetadataCache() {
+        apiMetadataService.refresh();
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("metadataCache", apiMetadataService.getCacheStatistics());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Start a replay job reprocessing a range of a connection's topic
+     */
+    @PostMapping("/replays")
+    public ResponseEntity<Map<String, Object>> startReplay(@RequestBody ReplayRequest request) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            response.put("status", "success");
+            response.put("replay", replayService.startReplay(request));
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            response.put("status", "error");
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * Progress of all replay jobs
+     */
+    @GetMapping("/replays")
+    public ResponseEntity<Map<String, Object>> getReplays() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("replays", replayService.getReplays());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Progress of one replay job
+     */
+    @GetMapping("/replays/{id}")
+    public ResponseEntity<Map<String, Object>> getReplay(@PathVariable UUID id) {
+        Map<String, Object> replay = replayService.getReplay(id);
+        if (replay == null) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("replay", replay);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Stop a replay job after its current batch
+     */
+    @DeleteMapping("/replays/{id}")
+    public ResponseEntity<Map<String, Object>> cancelReplay(@PathVariable UUID id) {
+        if (!replayService.cancelReplay(id)) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("replay", replayService.getReplay(id));
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * Health check for audit processor
      */
@@ -52,6 +155,10 @@ public class AuditProcessorController {
         response.put("message", "Dynamic Message Processor is running!");
         response.put("endpoints", new String[]{
             "GET /api/audit-processor/stats - Get processor statistics",
+            "POST /api/audit-processor/metadata-cache/refresh - Reload API metadata cache",
+            "POST /api/audit-processor/replays - Start a replay job",
+            "GET /api/audit-processor/replays[/{id}] - Replay job progress",
+            "DELETE /api/audit-processor/replays/{id} - Cancel a replay job",
             "GET /api/audit-processor/health - Health check"
         });
         
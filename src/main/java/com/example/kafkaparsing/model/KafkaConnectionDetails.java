@@ -37,6 +37,28 @@ public class KafkaConnectionDetails {
     @JsonProperty("patterns")
     private Map<String, String> patterns;
 
+    // Deliver whole poll batches to the processor instead of one record at a time
+    @JsonProperty("batchListener")
+    private Boolean batchListener;
+
+    @JsonProperty("maxPollRecords")
+    private Integer maxPollRecords;
+
+    // Consumer threads for the topic, capped at its partition count
+    @JsonProperty("concurrency")
+    private Integer concurrency;
+
+    // Let ListenerAutoscaler move concurrency between concurrency and maxConcurrency
+    @JsonProperty("autoscale")
+    private Boolean autoscale;
+
+    @JsonProperty("maxConcurrency")
+    private Integer maxConcurrency;
+
+    // Worker lanes per connection; records are spread over them by correlation key (1 = off)
+    @JsonProperty("parallelism")
+    private Integer parallelism;
+
     // Default constructor
     public KafkaConnectionDetails() {}
 
@@ -121,6 +143,66 @@ public class KafkaConnectionDetails {
         this.patterns = patterns;
     }
 
+    public Boolean getBatchListener() {
+        return batchListener;
+    }
+
+    public void setBatchListener(Boolean batchListener) {
+        this.batchListener = batchListener;
+    }
+
+    public boolean isBatchListener() {
+        return Boolean.TRUE.equals(batchListener);
+    }
+
+    public Integer getMaxPollRecords() {
+        return maxPollRecords;
+    }
+
+    public void setMaxPollRecords(Integer maxPollRecords) {
+        this.maxPollRecords = maxPollRecords;
+    }
+
+    public Integer getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(Integer concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public Boolean getAutoscale() {
+        return autoscale;
+    }
+
+    public void setAutoscale(Boolean autoscale) {
+        this.autoscale = autoscale;
+    }
+
+    public boolean isAutoscale() {
+        return Boolean.TRUE.equals(autoscale);
+    }
+
+    public Integer getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public void setMaxConcurrency(Integer maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public Integer getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(Integer parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public boolean isParallel() {
+        return parallelism != null && parallelism > 1;
+    }
+
     @Override
     public String toString() {
         return "KafkaConnectionDetails{" +
@@ -134,6 +216,12 @@ public class KafkaConnectionDetails {
                 ", password='[PROTECTED]'" +
                 ", fields=" + fields +
                 ", patterns=" + patterns +
+                ", batchListener=" + batchListener +
+                ", maxPollRecords=" + maxPollRecords +
+                ", concurrency=" + concurrency +
+                ", autoscale=" + autoscale +
+                ", maxConcurrency=" + maxConcurrency +
+                ", parallelism=" + parallelism +
                 '}';
     }
 }
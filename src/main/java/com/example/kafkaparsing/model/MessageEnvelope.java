@@ -0,0 +1,161 @@
+package com.example.kafkaparsing.model;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A consumed record as it travels from DynamicKafkaConsumerManager to DynamicMessageProcessor.
+ *
+ * The record is parsed at most once. The enhanced payload (original message plus connectionName and
+ * extractedApiName) is built from the original bytes and shared by the forwarder and the stored
+ * Request/Response payload, so neither has to serialize the tree again or decode it into a String.
+ *
+ * For APIs using streaming extraction the envelope is created without a tree ({@link #isStreaming()});
+ * the tree is then only built if something asks for it.
+ */
+public class MessageEnvelope {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final String key;
+    private final String topic;
+    private final int partition;
+    private final long offset;
+    private final long timestamp;
+    private final String connectionName;
+    private final KafkaConnectionDetails connectionDetails;
+    private final String extractedApiName;
+    private final byte[] payloadBytes;
+    private final boolean streaming;
+
+    // Parsed on first use when the envelope was created without a tree
+    private JsonNode messageNode;
+    // Set in at-least-once mode; documents built from this record take a reference
+    private RecordAck ack;
+    // Separates event-time clocks of records read outside the live consumers (replay jobs), null for live records
+    private String clockScope;
+
+    public MessageEnvelope(String key, String topic, int partition, long offset, long timestamp,
+                           String connectionName, KafkaConnectionDetails connectionDetails,
+                           String extractedApiName, JsonNode messageNode, byte[] payloadBytes) {
+        this.key = key;
+        this.topic = topic;
+        this.partition = partition;
+        this.offset = offset;
+        this.timestamp = timestamp;
+        this.connectionName = connectionName;
+        this.connectionDetails = connectionDetails;
+        this.extractedApiName = extractedApiName;
+        this.messageNode = messageNode;
+        this.payloadBytes = payloadBytes;
+        this.streaming = messageNode == null;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public int getPartition() {
+        return partition;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getConnectionName() {
+        return connectionName;
+    }
+
+    public KafkaConnectionDetails getConnectionDetails() {
+        return connectionDetails;
+    }
+
+    /**
+     * API name resolved from the connection's field configuration, null if not found
+     */
+    public String getExtractedApiName() {
+        return extractedApiName;
+    }
+
+    /**
+     * Parsed message, including the connectionName / extractedApiName fields
+     */
+    public JsonNode getMessageNode() {
+        JsonNode current = messageNode;
+        if (current == null) {
+            try {
+                current = OBJECT_MAPPER.readTree(payloadBytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to parse message payload", e);
+            }
+            messageNode = current;
+        }
+        return current;
+    }
+
+    /**
+     * Whether fields are to be read from the payload bytes rather than the tree
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Enhanced message as UTF-8 JSON
+     */
+    public byte[] getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    public int getPayloadLength() {
+        return payloadBytes.length;
+    }
+
+    /**
+     * Acknowledgement of the record, null unless offsets are committed after indexing
+     */
+    public RecordAck getAck() {
+        return ack;
+    }
+
+    public void setAck(RecordAck ack) {
+        this.ack = ack;
+    }
+
+    /**
+     * Key of the event-time clock this record advances: one per connection and partition (and scope)
+     */
+    public String getClockKey() {
+        String key = connectionName + '/' + topic + '-' + partition;
+        return clockScope != null ? clockScope + '/' + key : key;
+    }
+
+    public void setClockScope(String clockScope) {
+        this.clockScope = clockScope;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageEnvelope{" +
+                "topic='" + topic + '\'' +
+                ", partition=" + partition +
+                ", offset=" + offset +
+                ", connectionName='" + connectionName + '\'' +
+                ", extractedApiName='" + extractedApiName + '\'' +
+                ", payloadLength=" + payloadBytes.length +
+                ", streaming=" + streaming +
+                '}';
+    }
+}
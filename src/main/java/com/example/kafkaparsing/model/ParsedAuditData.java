@@ -1,6 +1,9 @@
 package com.example.kafkaparsing.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.elasticsearch.annotations.Document;
 import org.springframework.data.elasticsearch.annotations.Field;
@@ -36,9 +39,12 @@ public class ParsedAuditData {
     @Field(type = FieldType.Keyword)
     private String parentId;
 
+    // Payloads are kept as the record's UTF-8 bytes and written into the bulk body as they are
     @JsonProperty("RequestPayload")
+    @JsonSerialize(using = Utf8Text.Serializer.class)
+    @JsonDeserialize(using = Utf8Text.Deserializer.class)
     @Field(type = FieldType.Text)
-    private String requestPayload;
+    private byte[] requestPayload;
 
     @JsonProperty("RequestTime")
     @Field(type = FieldType.Date)
@@ -49,8 +55,10 @@ public class ParsedAuditData {
     private String resourcePath;
 
     @JsonProperty("ResponsePayload")
+    @JsonSerialize(using = Utf8Text.Serializer.class)
+    @JsonDeserialize(using = Utf8Text.Deserializer.class)
     @Field(type = FieldType.Text)
-    private String responsePayload;
+    private byte[] responsePayload;
 
     @JsonProperty("ResponseTime")
     @Field(type = FieldType.Date)
@@ -83,6 +91,10 @@ public class ParsedAuditData {
     @Field(type = FieldType.Nested)
     private List<CustomFieldEntry> customFields;
 
+    // Records this document was built from, acknowledged once it is indexed or spooled (never serialized)
+    @JsonIgnore
+    private transient List<RecordAck> acks;
+
     // Inner class for custom field entries
     public static class CustomFieldEntry {
         private String key;
@@ -133,6 +145,21 @@ public class ParsedAuditData {
         this.uniqueTransactionId = correlationId;
     }
 
+    /**
+     * Default ParentID/TransactionID/UniqueTransactionID that were not extracted to the correlation ID
+     */
+    public void applyCorrelationDefaults() {
+        if (parentId == null) {
+            parentId = correlationId;
+        }
+        if (transactionId == null) {
+            transactionId = correlationId;
+        }
+        if (uniqueTransactionId == null) {
+            uniqueTransactionId = correlationId;
+        }
+    }
+
     // Getters and Setters
     public String getId() {
         return id;
@@ -174,11 +201,11 @@ public class ParsedAuditData {
         this.parentId = parentId;
     }
 
-    public String getRequestPayload() {
+    public byte[] getRequestPayload() {
         return requestPayload;
     }
 
-    public void setRequestPayload(String requestPayload) {
+    public void setRequestPayload(byte[] requestPayload) {
         this.requestPayload = requestPayload;
     }
 
@@ -198,11 +225,11 @@ public class ParsedAuditData {
         this.resourcePath = resourcePath;
     }
 
-    public String getResponsePayload() {
+    public byte[] getResponsePayload() {
         return responsePayload;
     }
 
-    public void setResponsePayload(String responsePayload) {
+    public void setResponsePayload(byte[] responsePayload) {
         this.responsePayload = responsePayload;
     }
 
@@ -262,6 +289,86 @@ public class ParsedAuditData {
         this.isComplete = isComplete;
     }
 
+    /**
+     * Make this document hold a reference to a record's acknowledgement; null is ignored
+     */
+    public void addAck(RecordAck ack) {
+        if (ack != null) {
+            if (acks == null) {
+                acks = new ArrayList<>(2);
+            }
+            acks.add(ack.retain());
+        }
+    }
+
+    /**
+     * Hand over references already held (e.g. kept aside while the document was spilled)
+     */
+    public void addAcks(List<RecordAck> held) {
+        if (held != null && !held.isEmpty()) {
+            if (acks == null) {
+                acks = new ArrayList<>(held.size());
+            }
+            acks.addAll(held);
+        }
+    }
+
+    /**
+     * Remove and return the held references, null if there are none
+     */
+    public List<RecordAck> takeAcks() {
+        List<RecordAck> taken = acks;
+        acks = null;
+        return taken;
+    }
+
+    /**
+     * Take over what a RESPONSE extracted on its own (orphaned RESPONSE followed by its REQUEST). Values it
+     * has win, as they would had the RESPONSE been applied after the REQUEST; its custom fields are
+     * appended and its record acknowledgements handed over.
+     */
+    public void mergeResponse(ParsedAuditData response) {
+        if (response.host != null) {
+            host = response.host;
+        }
+        if (response.parentId != null) {
+            parentId = response.parentId;
+        }
+        if (response.requestPayload != null) {
+            requestPayload = response.requestPayload;
+        }
+        if (response.requestTime != null) {
+            requestTime = response.requestTime;
+        }
+        if (response.resourcePath != null) {
+            resourcePath = response.resourcePath;
+        }
+        if (response.responsePayload != null) {
+            responsePayload = response.responsePayload;
+        }
+        if (response.responseTime != null) {
+            responseTime = response.responseTime;
+        }
+        if (response.status != null) {
+            status = response.status;
+        }
+        if (response.statusCode != null) {
+            statusCode = response.statusCode;
+        }
+        if (response.transactionId != null) {
+            transactionId = response.transactionId;
+        }
+        if (response.uniqueTransactionId != null) {
+            uniqueTransactionId = response.uniqueTransactionId;
+        }
+        if (response.customFields != null) {
+            for (CustomFieldEntry customField : response.customFields) {
+                addCustomField(customField.getKey(), customField.getValue());
+            }
+        }
+        addAcks(response.takeAcks());
+    }
+
     public List<CustomFieldEntry> getCustomFields() {
         return customFields;
     }
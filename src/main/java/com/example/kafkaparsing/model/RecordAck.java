@@ -0,0 +1,44 @@
+package com.example.kafkaparsing.model;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference-counted acknowledgement of one consumed record (at-least-once mode). The listener holds a
+ * reference while it processes the record and every document built from it holds one until the document
+ * is indexed or spooled; once the last reference is released the record's offset may be committed.
+ */
+public final class RecordAck {
+
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final Runnable onDone;
+
+    public RecordAck(Runnable onDone) {
+        this.onDone = onDone;
+    }
+
+    /**
+     * Take another reference, for a document that now depends on this record
+     */
+    public RecordAck retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            onDone.run();
+        }
+    }
+
+    /**
+     * Release every acknowledgement in the list; null is allowed
+     */
+    public static void releaseAll(List<RecordAck> acks) {
+        if (acks != null) {
+            for (RecordAck ack : acks) {
+                ack.release();
+            }
+        }
+    }
+}
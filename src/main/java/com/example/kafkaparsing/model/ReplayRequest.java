@@ -0,0 +1,98 @@
+package com.example.kafkaparsing.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Reprocess a range of a connection's topic. The range starts at startOffsets, or the first record at or
+ * after from, or the beginning of each partition; it ends before endOffsets, or the first record at or after
+ * to, or the end of each partition when the job starts. Timestamps are ISO-8601 instants.
+ */
+public class ReplayRequest {
+
+    @JsonProperty("connectionId")
+    private UUID connectionId;
+
+    @JsonProperty("from")
+    private String from;
+
+    @JsonProperty("to")
+    private String to;
+
+    // Partition -> offset
+    @JsonProperty("startOffsets")
+    private Map<Integer, Long> startOffsets;
+
+    @JsonProperty("endOffsets")
+    private Map<Integer, Long> endOffsets;
+
+    // Defaults to the connection's group with a "-replay-<job>" suffix, never the live group
+    @JsonProperty("consumerGroupId")
+    private String consumerGroupId;
+
+    // Default constructor
+    public ReplayRequest() {}
+
+    // Getters and Setters
+    public UUID getConnectionId() {
+        return connectionId;
+    }
+
+    public void setConnectionId(UUID connectionId) {
+        this.connectionId = connectionId;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public void setFrom(String from) {
+        this.from = from;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public void setTo(String to) {
+        this.to = to;
+    }
+
+    public Map<Integer, Long> getStartOffsets() {
+        return startOffsets;
+    }
+
+    public void setStartOffsets(Map<Integer, Long> startOffsets) {
+        this.startOffsets = startOffsets;
+    }
+
+    public Map<Integer, Long> getEndOffsets() {
+        return endOffsets;
+    }
+
+    public void setEndOffsets(Map<Integer, Long> endOffsets) {
+        this.endOffsets = endOffsets;
+    }
+
+    public String getConsumerGroupId() {
+        return consumerGroupId;
+    }
+
+    public void setConsumerGroupId(String consumerGroupId) {
+        this.consumerGroupId = consumerGroupId;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplayRequest{" +
+                "connectionId=" + connectionId +
+                ", from='" + from + '\'' +
+                ", to='" + to + '\'' +
+                ", startOffsets=" + startOffsets +
+                ", endOffsets=" + endOffsets +
+                ", consumerGroupId='" + consumerGroupId + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.kafkaparsing.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.json.UTF8JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Jackson (de)serializers for text held as UTF-8 bytes, such as the stored payloads. The bytes are
+ * written as a JSON string straight into UTF-8 output (escaped, never decoded); other generators get
+ * a decoded String.
+ */
+public final class Utf8Text {
+
+    private Utf8Text() {
+    }
+
+    public static final class Serializer extends StdSerializer<byte[]> {
+
+        public Serializer() {
+            super(byte[].class);
+        }
+
+        @Override
+        public void serialize(byte[] value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            if (generator instanceof UTF8JsonGenerator) {
+                generator.writeUTF8String(value, 0, value.length);
+            } else {
+                generator.writeString(new String(value, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    public static final class Deserializer extends StdDeserializer<byte[]> {
+
+        public Deserializer() {
+            super(byte[].class);
+        }
+
+        @Override
+        public byte[] deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            return parser.getValueAsString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -2,8 +2,11 @@ package com.example.kafkaparsing.repository;
 
 import com.example.kafkaparsing.entity.ApiMetadata;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -22,5 +25,18 @@ public interface ApiMetadataRepository extends JpaRepository<ApiMetadata, UUID>
      * Find API metadata by API name (case insensitive)
      */
     Optional<ApiMetadata> findByApiNameIgnoreCase(String apiName);
+
+    /**
+     * Load every API with its fields in one query, rows are [ApiMetadata, ApiMetadataField or null]
+     */
+    @Query("select m, f from ApiMetadata m left join ApiMetadataField f on f.apiMetadataId = m.uniqueId")
+    List<Object[]> findAllWithFields();
+
+    /**
+     * Load one API (case insensitive) with its fields, rows are [ApiMetadata, ApiMetadataField or null]
+     */
+    @Query("select m, f from ApiMetadata m left join ApiMetadataField f on f.apiMetadataId = m.uniqueId "
+            + "where lower(m.apiName) = lower(:apiName)")
+    List<Object[]> findWithFieldsByApiNameIgnoreCase(@Param("apiName") String apiName);
 }
 
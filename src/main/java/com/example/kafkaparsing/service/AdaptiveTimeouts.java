@@ -0,0 +1,179 @@
+package com.example.kafkaparsing.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-API REQUEST timeouts learned from observed latency. Each API keeps a streaming latency sketch
+ * (log-scaled buckets, about 10% relative error) fed with the RequestTime -> ResponseTime latency of its
+ * completed transactions, and with a sample at the current timeout for each REQUEST that timed out.
+ * Its timeout is the configured quantile times a multiplier, clamped to
+ * [floor, ceiling]; until an API has minSamples the default timeout applies. Timed-out REQUESTs keep the
+ * sketch from being truncated at its own timeout: once they are more than 1 - quantile of the samples the
+ * quantile reaches the timeout and the next timeout grows by the multiplier.
+ *
+ * Once a sketch holds maxSamples its counts are halved, so older traffic fades out and the timeout
+ * follows changes in latency.
+ */
+public final class AdaptiveTimeouts {
+
+    private static final double GROWTH = 1.1;
+    private static final double LOG_GROWTH = Math.log(GROWTH);
+    // 1.1^240 ms is far beyond any sensible timeout
+    private static final int BUCKETS = 240;
+    // Timeout recomputed every this many samples
+    private static final int RECOMPUTE_EVERY = 32;
+
+    private final long defaultTimeoutMs;
+    private final double quantile;
+    private final double multiplier;
+    private final long floorMs;
+    private final long ceilingMs;
+    private final long minSamples;
+    private final long maxSamples;
+
+    private final Map<String, LatencySketch> sketches = new ConcurrentHashMap<>();
+
+    public AdaptiveTimeouts(long defaultTimeoutMs, double quantile, double multiplier, long floorMs, long ceilingMs,
+                            long minSamples, long maxSamples) {
+        if (quantile <= 0 || quantile > 1) {
+            throw new IllegalArgumentException("quantile must be in (0, 1]: " + quantile);
+        }
+        this.defaultTimeoutMs = defaultTimeoutMs;
+        this.quantile = quantile;
+        this.multiplier = multiplier;
+        this.floorMs = floorMs;
+        this.ceilingMs = Math.max(floorMs, ceilingMs);
+        this.minSamples = Math.max(1, minSamples);
+        this.maxSamples = Math.max(this.minSamples * 2, maxSamples);
+    }
+
+    /**
+     * Record the latency of a completed transaction; negative latencies (clock skew) are ignored
+     */
+    public void record(String apiName, long latencyMs) {
+        if (apiName == null || latencyMs < 0) {
+            return;
+        }
+        sketches.computeIfAbsent(apiName, k -> new LatencySketch()).record(latencyMs, false);
+    }
+
+    /**
+     * Record a REQUEST of the API that timed out: its latency is unknown but at least the current timeout
+     */
+    public void recordTimeout(String apiName) {
+        if (apiName == null) {
+            return;
+        }
+        long timeoutMs = getTimeoutMs(apiName);
+        sketches.computeIfAbsent(apiName, k -> new LatencySketch()).record(timeoutMs, true);
+    }
+
+    /**
+     * Timeout for a REQUEST of the API: learned if there are enough samples, otherwise the default
+     */
+    public long getTimeoutMs(String apiName) {
+        LatencySketch sketch = apiName != null ? sketches.get(apiName) : null;
+        long learned = sketch != null ? sketch.timeoutMs : -1;
+        return learned > 0 ? learned : defaultTimeoutMs;
+    }
+
+    /**
+     * Learned values per API for the stats endpoint
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> apis = new TreeMap<>();
+        for (Map.Entry<String, LatencySketch> entry : sketches.entrySet()) {
+            LatencySketch sketch = entry.getValue();
+            Map<String, Object> api = new LinkedHashMap<>();
+            synchronized (sketch) {
+                api.put("samples", sketch.total);
+                api.put("timedOut", sketch.timedOut);
+                api.put("p50Ms", sketch.quantile(0.5));
+                api.put("p99Ms", sketch.quantile(0.99));
+                api.put("quantileMs", sketch.quantile(quantile));
+            }
+            api.put("timeoutMs", getTimeoutMs(entry.getKey()));
+            api.put("learned", sketch.timeoutMs > 0);
+            apis.put(entry.getKey(), api);
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("defaultTimeoutMs", defaultTimeoutMs);
+        stats.put("quantile", quantile);
+        stats.put("multiplier", multiplier);
+        stats.put("floorMs", floorMs);
+        stats.put("ceilingMs", ceilingMs);
+        stats.put("minSamples", minSamples);
+        stats.put("apis", apis);
+        return stats;
+    }
+
+    private static int bucket(long latencyMs) {
+        if (latencyMs <= 1) {
+            return 0;
+        }
+        return (int) Math.min(BUCKETS - 1, Math.ceil(Math.log(latencyMs) / LOG_GROWTH));
+    }
+
+    private static long upperBound(int bucket) {
+        return (long) Math.ceil(Math.pow(GROWTH, bucket));
+    }
+
+    private final class LatencySketch {
+
+        private final long[] counts = new long[BUCKETS];
+        private long total;
+        // REQUESTs recorded at their timeout, not decayed
+        private long timedOut;
+        private long sinceRecompute;
+        // -1 until minSamples have been seen
+        private volatile long timeoutMs = -1;
+
+        synchronized void record(long latencyMs, boolean timedOut) {
+            if (timedOut) {
+                this.timedOut++;
+            }
+            counts[bucket(latencyMs)]++;
+            total++;
+            if (total >= maxSamples) {
+                decay();
+            }
+            if (++sinceRecompute >= RECOMPUTE_EVERY || (timeoutMs < 0 && total >= minSamples)) {
+                sinceRecompute = 0;
+                if (total >= minSamples) {
+                    long derived = (long) (quantile(quantile) * multiplier);
+                    timeoutMs = Math.max(floorMs, Math.min(ceilingMs, derived));
+                }
+            }
+        }
+
+        private void decay() {
+            total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] >>= 1;
+                total += counts[i];
+            }
+        }
+
+        /**
+         * Upper bound of the bucket holding the q-quantile, 0 if empty
+         */
+        long quantile(double q) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(counts.length - 1);
+        }
+    }
+}
@@ -7,10 +7,26 @@ import com.example.kafkaparsing.repository.ApiMetadataRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Service for API Metadata operations
@@ -26,6 +42,49 @@ public class ApiMetadataService {
     @Autowired
     private ApiMetadataFieldRepository apiMetadataFieldRepository;
 
+    @Autowired
+    private ExtractionPlanCache extractionPlanCache;
+
+    @Value("${audit.metadata-cache.refresh-interval-seconds:300}")
+    private long refreshIntervalSeconds;
+
+    @Value("${audit.metadata-cache.negative-ttl-seconds:60}")
+    private long negativeTtlSeconds;
+
+    // Immutable snapshot keyed by normalized (and exact) API name, swapped atomically on refresh
+    private final AtomicReference<Map<String, CachedApi>> snapshot = new AtomicReference<>(Collections.emptyMap());
+    // Normalized API names known to be missing, with expiry time
+    private final ConcurrentHashMap<String, Long> negativeCache = new ConcurrentHashMap<>();
+
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong refreshFailures = new AtomicLong();
+    private volatile long lastRefreshMillis;
+
+    private ScheduledExecutorService refreshExecutor;
+
+    @PostConstruct
+    public void init() {
+        refresh();
+        if (refreshIntervalSeconds > 0) {
+            refreshExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "api-metadata-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+            refreshExecutor.scheduleWithFixedDelay(this::refresh, refreshIntervalSeconds, refreshIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+    }
+
     /**
      * Find API metadata by API name
      */
@@ -79,43 +138,207 @@ public class ApiMetadataService {
 
     /**
      * Get field configuration for an API name (returns ALL fields - Mandatory + Custom)
+     * Served from the in-memory snapshot; unknown names are read through once and then negatively cached
      */
     public List<ApiMetadataField> getFieldConfigurationForApi(String apiName) {
+        if (apiName == null) {
+            return Collections.emptyList();
+        }
+
+        Map<String, CachedApi> current = snapshot.get();
+        CachedApi cached = current.get(apiName);
+        if (cached == null) {
+            cached = current.get(normalize(apiName));
+        }
+        if (cached != null) {
+            cacheHits.incrementAndGet();
+            return cached.fields;
+        }
+
+        String normalized = normalize(apiName);
+        Long negativeUntil = negativeCache.get(normalized);
+        if (negativeUntil != null) {
+            if (negativeUntil > System.currentTimeMillis()) {
+                negativeHits.incrementAndGet();
+                return Collections.emptyList();
+            }
+            negativeCache.remove(normalized, negativeUntil);
+        }
+
+        cacheMisses.incrementAndGet();
+        return loadApi(apiName);
+    }
+
+    /**
+     * Read one API through to the database and add it to the snapshot (or the negative cache)
+     */
+    private List<ApiMetadataField> loadApi(String apiName) {
+        String normalized = normalize(apiName);
         try {
             logger.info("📋 Loading field configuration for API: {}", apiName);
-            
-            // Find API metadata
-            Optional<ApiMetadata> metadataOpt = findByApiName(apiName);
-            
-            if (!metadataOpt.isPresent()) {
+            Map<String, CachedApi> loaded = groupRows(apiMetadataRepository.findWithFieldsByApiNameIgnoreCase(apiName));
+            CachedApi api = loaded.get(normalized);
+
+            if (api == null) {
                 logger.warn("⚠️ No API metadata found for: {}", apiName);
-                return java.util.Collections.emptyList();
-            }
-            
-            ApiMetadata metadata = metadataOpt.get();
-            
-            // Get ALL fields (Mandatory + Custom)
-            List<ApiMetadataField> fields = getFieldsByApiMetadataId(metadata.getUniqueId());
-            
-            // Count by type
-            long mandatoryCount = fields.stream().filter(f -> "Mandatory".equals(f.getKeyStatus())).count();
-            long customCount = fields.stream().filter(f -> "Custom".equals(f.getKeyStatus())).count();
-            
-            logger.info("📊 Field configuration loaded for API '{}': {} total fields ({} Mandatory, {} Custom)", 
-                apiName, fields.size(), mandatoryCount, customCount);
-            
-            for (ApiMetadataField field : fields) {
-                logger.debug("   - Field: {}, Path: {}, KeyStatus: {}, MessageType: {}, Datatype: {}", 
-                    field.getField(), field.getPath(), field.getKeyStatus(), 
-                    field.getMessageType() != null ? field.getMessageType() : "ANY", field.getDatatype());
+                negativeCache.put(normalized, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(negativeTtlSeconds));
+                return Collections.emptyList();
             }
-            
-            return fields;
-            
+
+            snapshot.updateAndGet(current -> {
+                Map<String, CachedApi> next = new HashMap<>(current);
+                putApi(next, api);
+                return Collections.unmodifiableMap(next);
+            });
+            logFieldConfiguration(apiName, api.fields);
+            return api.fields;
+
         } catch (Exception e) {
             logger.error("❌ Error getting field configuration for API {}: {}", apiName, e.getMessage(), e);
-            return java.util.Collections.emptyList();
+            return Collections.emptyList();
         }
     }
-}
 
+    /**
+     * Reload every API and its fields in one joined query and swap the snapshot atomically
+     */
+    public synchronized void refresh() {
+        long start = System.currentTimeMillis();
+        try {
+            Map<String, CachedApi> loaded = groupRows(apiMetadataRepository.findAllWithFields());
+            Map<String, CachedApi> next = new HashMap<>();
+            int fieldCount = 0;
+            for (CachedApi api : loaded.values()) {
+                putApi(next, api);
+                fieldCount += api.fields.size();
+            }
+            snapshot.set(Collections.unmodifiableMap(next));
+            negativeCache.clear();
+            refreshes.incrementAndGet();
+            lastRefreshMillis = System.currentTimeMillis();
+            logger.info("📋 API metadata cache refreshed: {} APIs, {} fields in {} ms",
+                loaded.size(), fieldCount, lastRefreshMillis - start);
+        } catch (Exception e) {
+            refreshFailures.incrementAndGet();
+            logger.error("❌ Error refreshing API metadata cache, keeping previous snapshot: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reload a single API after a change notification, leaving the rest of the snapshot untouched
+     */
+    public void refreshApi(String apiName) {
+        if (apiName == null || apiName.trim().isEmpty()) {
+            return;
+        }
+        String normalized = normalize(apiName);
+        try {
+            CachedApi api = groupRows(apiMetadataRepository.findWithFieldsByApiNameIgnoreCase(apiName.trim())).get(normalized);
+            synchronized (this) {
+                snapshot.updateAndGet(current -> {
+                    Map<String, CachedApi> next = new HashMap<>(current);
+                    next.values().removeIf(cached -> normalize(cached.metadata.getApiName()).equals(normalized));
+                    if (api != null) {
+                        putApi(next, api);
+                    }
+                    return Collections.unmodifiableMap(next);
+                });
+                negativeCache.remove(normalized);
+            }
+            extractionPlanCache.invalidate(apiName);
+
+            if (api != null) {
+                logFieldConfiguration(api.metadata.getApiName(), api.fields);
+            } else {
+                logger.info("📋 API '{}' removed from metadata cache", apiName);
+            }
+        } catch (Exception e) {
+            refreshFailures.incrementAndGet();
+            logger.error("❌ Error reloading API metadata for {}, keeping cached configuration: {}", apiName, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Group [ApiMetadata, ApiMetadataField] rows by normalized API name
+     */
+    private Map<String, CachedApi> groupRows(List<Object[]> rows) {
+        Map<String, ApiMetadata> metadataByName = new HashMap<>();
+        Map<String, List<ApiMetadataField>> fieldsByName = new HashMap<>();
+        for (Object[] row : rows) {
+            ApiMetadata metadata = (ApiMetadata) row[0];
+            if (metadata.getApiName() == null) {
+                continue;
+            }
+            String normalized = normalize(metadata.getApiName());
+            metadataByName.putIfAbsent(normalized, metadata);
+            List<ApiMetadataField> fields = fieldsByName.computeIfAbsent(normalized, k -> new ArrayList<>());
+            if (row[1] != null) {
+                fields.add((ApiMetadataField) row[1]);
+            }
+        }
+
+        Map<String, CachedApi> grouped = new HashMap<>();
+        for (Map.Entry<String, ApiMetadata> entry : metadataByName.entrySet()) {
+            grouped.put(entry.getKey(), new CachedApi(entry.getValue(),
+                Collections.unmodifiableList(fieldsByName.get(entry.getKey()))));
+        }
+        return grouped;
+    }
+
+    /**
+     * Index an API under its normalized name and, for a lookup without lowercasing, its exact name
+     */
+    private void putApi(Map<String, CachedApi> target, CachedApi api) {
+        target.put(normalize(api.metadata.getApiName()), api);
+        target.put(api.metadata.getApiName(), api);
+    }
+
+    private void logFieldConfiguration(String apiName, List<ApiMetadataField> fields) {
+        // Count by type
+        long mandatoryCount = fields.stream().filter(f -> "Mandatory".equals(f.getKeyStatus())).count();
+        long customCount = fields.stream().filter(f -> "Custom".equals(f.getKeyStatus())).count();
+        
+        logger.info("📊 Field configuration loaded for API '{}': {} total fields ({} Mandatory, {} Custom)", 
+            apiName, fields.size(), mandatoryCount, customCount);
+        
+        for (ApiMetadataField field : fields) {
+            logger.debug("   - Field: {}, Path: {}, KeyStatus: {}, MessageType: {}, Datatype: {}", 
+                field.getField(), field.getPath(), field.getKeyStatus(), 
+                field.getMessageType() != null ? field.getMessageType() : "ANY", field.getDatatype());
+        }
+    }
+
+    private static String normalize(String apiName) {
+        return apiName.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Cache counters for the stats endpoint
+     */
+    public Map<String, Object> getCacheStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("apis", snapshot.get().values().stream().distinct().count());
+        stats.put("hits", cacheHits.get());
+        stats.put("misses", cacheMisses.get());
+        stats.put("negativeHits", negativeHits.get());
+        stats.put("negativeEntries", negativeCache.size());
+        stats.put("refreshes", refreshes.get());
+        stats.put("refreshFailures", refreshFailures.get());
+        stats.put("lastRefresh", lastRefreshMillis > 0 ? Instant.ofEpochMilli(lastRefreshMillis).toString() : null);
+        return stats;
+    }
+
+    /**
+     * An API and its fields as of the last load
+     */
+    private static final class CachedApi {
+
+        private final ApiMetadata metadata;
+        private final List<ApiMetadataField> fields;
+
+        private CachedApi(ApiMetadata metadata, List<ApiMetadataField> fields) {
+            this.metadata = metadata;
+            this.fields = fields;
+        }
+    }
+}
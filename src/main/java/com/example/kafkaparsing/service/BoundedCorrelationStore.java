@@ -0,0 +1,419 @@
+package com.example.kafkaparsing.service;
+
+import com.example.kafkaparsing.model.ParsedAuditData;
+import com.example.kafkaparsing.model.RecordAck;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Correlation store with a heap byte budget. Every entry is charged its estimated retained size;
+ * once the budget is exceeded the oldest resident entries are spilled to a memory-mapped file,
+ * or, when spilling is disabled or the file is full, evicted and flushed as incomplete.
+ *
+ * A removed entry stays in the order queues as a tombstone until it reaches their head. Tombstones are
+ * charged to the budget too, and once they outnumber the live entries both queues are swept.
+ */
+public class BoundedCorrelationStore implements CorrelationStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(BoundedCorrelationStore.class);
+
+    // Map node + CorrelationEntry + Timeout + insertion and expiry queue nodes, compressed oops
+    private static final long ENTRY_OVERHEAD_BYTES = 32 + 48 + 56 + 24 + 24;
+    // What a removed entry keeps alive until it leaves the queues (everything but the map node)
+    private static final long TOMBSTONE_OVERHEAD_BYTES = ENTRY_OVERHEAD_BYTES - 32;
+    // Queues are not swept for fewer tombstones than this
+    private static final long MIN_COMPACT_TOMBSTONES = 1024;
+    private static final long PARSED_AUDIT_DATA_SHALLOW_BYTES = 80;
+    private static final long LOCAL_DATE_TIME_BYTES = 72;
+    private static final long INTEGER_BYTES = 16;
+    private static final long CUSTOM_FIELD_ENTRY_SHALLOW_BYTES = 24;
+
+    private final String name;
+    private final long maxRetainedBytes;
+    private final CorrelationSpillFile spillFile;
+    private final EvictionHandler evictionHandler;
+
+    private final ConcurrentHashMap<CorrelationKey, CorrelationEntry> entries = new ConcurrentHashMap<>();
+    // Oldest first; removed entries linger as small tombstones until they reach the head
+    private final Queue<CorrelationEntry> insertionOrder = new ConcurrentLinkedQueue<>();
+    // Every entry by insertion time, spilled ones included (insertionOrder only holds resident ones), so
+    // removeInsertedBefore stops at the first entry that is young enough
+    private final Queue<CorrelationEntry> expiryOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicLong cleanupScanned = new AtomicLong();
+    private final AtomicLong completedEntries = new AtomicLong();
+    private final AtomicLong timedOutEntries = new AtomicLong();
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final AtomicLong spilledEntries = new AtomicLong();
+    private final AtomicLong evictedEntries = new AtomicLong();
+    private final AtomicLong tombstones = new AtomicLong();
+    private final AtomicLong tombstoneBytes = new AtomicLong();
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    /**
+     * @param spillFile overflow file, or null to evict instead of spilling
+     */
+    public BoundedCorrelationStore(String name, long maxRetainedBytes, CorrelationSpillFile spillFile, EvictionHandler evictionHandler) {
+        this.name = name;
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.spillFile = spillFile;
+        this.evictionHandler = evictionHandler;
+    }
+
+    @Override
+    public void put(CorrelationKey key, ParsedAuditData data, CorrelationTimeoutScheduler.Timeout deadline) {
+        CorrelationEntry entry = new CorrelationEntry(key, data, deadline, estimateRetainedBytes(key, data));
+        entry.acks = data.takeAcks();
+        retainedBytes.addAndGet(entry.retainedBytes);
+        insertionOrder.add(entry);
+        expiryOrder.add(entry);
+
+        CorrelationEntry previous = entries.put(key, entry);
+        if (previous != null && previous.claim(CorrelationEntry.State.ORPHANED)) {
+            logger.debug("🔁 Replacing {} entry for ID: {}", name, key);
+            drop(previous);
+        }
+
+        trimReleasedHead(insertionOrder);
+        trimReleasedHead(expiryOrder);
+        compactIfNeeded();
+        enforceBudget();
+    }
+
+    @Override
+    public ParsedAuditData remove(CorrelationKey key) {
+        CorrelationEntry entry;
+        while ((entry = entries.get(key)) != null) {
+            boolean claimed = entry.claim(CorrelationEntry.State.COMPLETED);
+            // A lost claim leaves an entry that is on its way out; clear its slot and look again
+            entries.remove(key, entry);
+            if (claimed) {
+                completedEntries.incrementAndGet();
+                return release(entry);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public ParsedAuditData remove(CorrelationKey key, CorrelationTimeoutScheduler.Timeout deadline) {
+        CorrelationEntry entry = entries.get(key);
+        if (entry == null || entry.getDeadline() != deadline || !entry.claim(CorrelationEntry.State.TIMED_OUT)) {
+            return null;
+        }
+        entries.remove(key, entry);
+        timedOutEntries.incrementAndGet();
+        return release(entry);
+    }
+
+    @Override
+    public List<ParsedAuditData> removeInsertedBefore(long cutoffMillis) {
+        List<ParsedAuditData> removed = new ArrayList<>();
+        long scanned = 0;
+        CorrelationEntry head;
+        while ((head = expiryOrder.peek()) != null && head.getInsertedAtMillis() < cutoffMillis) {
+            expiryOrder.remove(head);
+            scanned++;
+            if (head.claim(CorrelationEntry.State.ORPHANED)) {
+                entries.remove(head.getKey(), head);
+                // Its records are acknowledged once the caller has indexed the data, not here
+                ParsedAuditData data = release(head);
+                if (data != null) {
+                    removed.add(data);
+                }
+            }
+        }
+        cleanupScanned.addAndGet(scanned);
+        return removed;
+    }
+
+    @Override
+    public List<ParsedAuditData> removeMatching(Predicate<CorrelationKey> filter) {
+        List<ParsedAuditData> removed = new ArrayList<>();
+        for (CorrelationEntry entry : entries.values()) {
+            if (filter.test(entry.getKey()) && entry.claim(CorrelationEntry.State.ORPHANED)) {
+                entries.remove(entry.getKey(), entry);
+                ParsedAuditData data = release(entry);
+                if (data != null) {
+                    removed.add(data);
+                }
+            }
+        }
+        trimReleasedHead(insertionOrder);
+        trimReleasedHead(expiryOrder);
+        compactIfNeeded();
+        return removed;
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    @Override
+    public long getSpilledEntries() {
+        return spilledEntries.get();
+    }
+
+    @Override
+    public long getEvictedEntries() {
+        return evictedEntries.get();
+    }
+
+    @Override
+    public long getCleanupScannedEntries() {
+        return cleanupScanned.get();
+    }
+
+    @Override
+    public long getCompletedEntries() {
+        return completedEntries.get();
+    }
+
+    @Override
+    public long getTimedOutEntries() {
+        return timedOutEntries.get();
+    }
+
+    @Override
+    public void close() {
+        if (spillFile != null) {
+            spillFile.close();
+        }
+    }
+
+    /**
+     * Detach an entry that was already removed from the map: cancel its deadline, free its budget
+     * and return its data (read back from the spill file if needed).
+     */
+    private ParsedAuditData release(CorrelationEntry entry) {
+        entry.getDeadline().cancel();
+
+        byte[] spilled = null;
+        ParsedAuditData data;
+        List<RecordAck> acks;
+        synchronized (entry) {
+            if (entry.released) {
+                return null;
+            }
+            entry.released = true;
+            data = entry.data;
+            acks = entry.acks;
+            entry.data = null;
+            entry.acks = null;
+            if (entry.spillOffset >= 0) {
+                spilled = spillFile.read(entry.spillOffset);
+                spillFile.release(entry.spillOffset, entry.spillLength);
+            }
+            // The entry itself stays charged as a tombstone until the queues are compacted
+            long tombstone = TOMBSTONE_OVERHEAD_BYTES + entry.getKey().retainedBytes();
+            retainedBytes.addAndGet(tombstone - entry.retainedBytes);
+            tombstones.incrementAndGet();
+            tombstoneBytes.addAndGet(tombstone);
+        }
+
+        if (spilled != null) {
+            try {
+                data = objectMapper.readValue(spilled, ParsedAuditData.class);
+            } catch (Exception e) {
+                logger.error("❌ Failed to read spilled {} entry {}: {}", name, entry.getKey(), e.getMessage(), e);
+            }
+        }
+        if (data == null) {
+            // Nothing left to index for these records
+            RecordAck.releaseAll(acks);
+            return null;
+        }
+        data.addAcks(acks);
+        return data;
+    }
+
+    /**
+     * Release an entry whose data is discarded rather than indexed; its records count as handled
+     */
+    private void drop(CorrelationEntry entry) {
+        ParsedAuditData data = release(entry);
+        if (data != null) {
+            RecordAck.releaseAll(data.takeAcks());
+        }
+    }
+
+    private static void trimReleasedHead(Queue<CorrelationEntry> order) {
+        CorrelationEntry head;
+        while ((head = order.peek()) != null && isReleased(head)) {
+            order.remove(head);
+        }
+    }
+
+    /**
+     * Sweep tombstones out of both queues once there are more of them than live entries, and stop
+     * charging them. Amortized over the removals that made them, so constant per entry.
+     */
+    private void compactIfNeeded() {
+        long count = tombstones.get();
+        if (count <= Math.max(MIN_COMPACT_TOMBSTONES, entries.size()) || !tombstones.compareAndSet(count, 0)) {
+            return;
+        }
+        retainedBytes.addAndGet(-tombstoneBytes.getAndSet(0));
+        insertionOrder.removeIf(BoundedCorrelationStore::isReleased);
+        expiryOrder.removeIf(BoundedCorrelationStore::isReleased);
+        logger.debug("🧹 Compacted {} {} tombstones, {} entries live", count, name, entries.size());
+    }
+
+    private static boolean isReleased(CorrelationEntry entry) {
+        synchronized (entry) {
+            return entry.released;
+        }
+    }
+
+    /**
+     * Spill (or evict) the oldest resident entries until the store is back under budget
+     */
+    private void enforceBudget() {
+        while (retainedBytes.get() > maxRetainedBytes) {
+            CorrelationEntry oldest = insertionOrder.poll();
+            if (oldest == null) {
+                return;
+            }
+            if (!spill(oldest)) {
+                evict(oldest);
+            }
+        }
+    }
+
+    private boolean spill(CorrelationEntry entry) {
+        if (spillFile == null) {
+            return false;
+        }
+        synchronized (entry) {
+            if (entry.released || entry.data == null) {
+                return true; // nothing left to free
+            }
+            try {
+                byte[] bytes = objectMapper.writeValueAsBytes(entry.data);
+                long offset = spillFile.append(bytes);
+                if (offset < 0) {
+                    return false;
+                }
+                long remaining = ENTRY_OVERHEAD_BYTES + entry.getKey().retainedBytes();
+                retainedBytes.addAndGet(remaining - entry.retainedBytes);
+                entry.data = null;
+                entry.spillOffset = offset;
+                entry.spillLength = bytes.length;
+                entry.retainedBytes = remaining;
+                spilledEntries.incrementAndGet();
+                return true;
+            } catch (Exception e) {
+                logger.warn("⚠️ Failed to spill {} entry {}: {}", name, entry.getKey(), e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    private void evict(CorrelationEntry entry) {
+        if (!entry.claim(CorrelationEntry.State.ORPHANED)) {
+            return;
+        }
+        entries.remove(entry.getKey(), entry);
+        ParsedAuditData data = release(entry);
+        if (data == null) {
+            return;
+        }
+        evictedEntries.incrementAndGet();
+        logger.warn("⚠️ {} store over budget ({} bytes), evicting ID: {}", name, retainedBytes.get(), entry.getKey());
+        try {
+            evictionHandler.onEvicted(entry.getKey(), data);
+        } catch (Exception e) {
+            logger.error("❌ Error handling evicted {} entry {}: {}", name, entry.getKey(), e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Estimate the heap retained by one entry, counting shared Strings once
+     */
+    static long estimateRetainedBytes(CorrelationKey key, ParsedAuditData data) {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        long size = ENTRY_OVERHEAD_BYTES + key.retainedBytes() + PARSED_AUDIT_DATA_SHALLOW_BYTES;
+        size += stringBytes(data.getId(), seen);
+        size += stringBytes(data.getApiName(), seen);
+        size += stringBytes(data.getCorrelationId(), seen);
+        size += stringBytes(data.getHost(), seen);
+        size += stringBytes(data.getParentId(), seen);
+        size += byteArrayBytes(data.getRequestPayload(), seen);
+        size += stringBytes(data.getResourcePath(), seen);
+        size += byteArrayBytes(data.getResponsePayload(), seen);
+        size += stringBytes(data.getStatus(), seen);
+        size += stringBytes(data.getTransactionId(), seen);
+        size += stringBytes(data.getUniqueTransactionId(), seen);
+        size += dateTimeBytes(data.getRequestTime());
+        size += dateTimeBytes(data.getResponseTime());
+        size += dateTimeBytes(data.getIndexedAt());
+        if (data.getStatusCode() != null) {
+            size += INTEGER_BYTES;
+        }
+
+        List<ParsedAuditData.CustomFieldEntry> customFields = data.getCustomFields();
+        if (customFields != null) {
+            // ArrayList + backing array
+            size += 24 + align(16 + 4L * Math.max(10, customFields.size()));
+            for (ParsedAuditData.CustomFieldEntry customField : customFields) {
+                size += CUSTOM_FIELD_ENTRY_SHALLOW_BYTES;
+                size += stringBytes(customField.getKey(), seen);
+                size += stringBytes(customField.getValue(), seen);
+            }
+        }
+        return size;
+    }
+
+    private static long stringBytes(String value, Set<Object> seen) {
+        if (value == null || !seen.add(value)) {
+            return 0;
+        }
+        // Compact strings: one byte per char unless any char is outside Latin-1
+        int bytesPerChar = 1;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0xFF) {
+                bytesPerChar = 2;
+                break;
+            }
+        }
+        return 24 + align(16 + (long) value.length() * bytesPerChar);
+    }
+
+    private static long byteArrayBytes(byte[] value, Set<Object> seen) {
+        if (value == null || !seen.add(value)) {
+            return 0;
+        }
+        return align(16 + (long) value.length);
+    }
+
+    private static long dateTimeBytes(LocalDateTime value) {
+        return value != null ? LOCAL_DATE_TIME_BYTES : 0;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
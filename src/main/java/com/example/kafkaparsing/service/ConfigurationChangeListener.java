@@ -0,0 +1,202 @@
+package com.example.kafkaparsing.service;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks up changes to the connections / api_metadata tables without a restart.
+ *
+ * In "notify" mode a dedicated JDBC connection LISTENs on Postgres channels fed by triggers
+ * (see README, Configuration Management). If LISTEN is unavailable, or in "poll" mode, the
+ * connections table is polled and reconciled on its updated_at watermark. Only the affected
+ * listener container is restarted and only the affected API's cached configuration is reloaded.
+ */
+@Service
+public class ConfigurationChangeListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConfigurationChangeListener.class);
+
+    public static final String CONNECTIONS_CHANNEL = "connections_changed";
+    public static final String API_METADATA_CHANNEL = "api_metadata_changed";
+
+    private static final long RECONNECT_BACKOFF_MS = 5000;
+
+    @Value("${audit.config-reload.enabled:true}")
+    private boolean enabled;
+
+    @Value("${audit.config-reload.mode:notify}")
+    private String mode;
+
+    @Value("${audit.config-reload.poll-interval-seconds:30}")
+    private long pollIntervalSeconds;
+
+    @Value("${spring.datasource.url}")
+    private String jdbcUrl;
+
+    @Value("${spring.datasource.username}")
+    private String jdbcUsername;
+
+    @Value("${spring.datasource.password}")
+    private String jdbcPassword;
+
+    @Autowired
+    private DynamicKafkaConsumerManager dynamicKafkaConsumerManager;
+
+    @Autowired
+    private ApiMetadataService apiMetadataService;
+
+    private volatile boolean running;
+    private Thread worker;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            logger.info("Configuration hot reload disabled");
+            return;
+        }
+        running = true;
+        worker = new Thread(this::run, "config-change-listener");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    private void run() {
+        boolean notify = "notify".equalsIgnoreCase(mode);
+        logger.info("🔄 Configuration hot reload started in {} mode", notify ? "notify" : "poll");
+
+        while (running) {
+            if (notify) {
+                notify = listen();
+                if (!notify && running) {
+                    logger.warn("⚠️ Postgres LISTEN/NOTIFY unavailable, falling back to polling connections.updated_at every {}s",
+                        pollIntervalSeconds);
+                }
+            } else {
+                poll();
+                sleep(TimeUnit.SECONDS.toMillis(pollIntervalSeconds));
+            }
+        }
+    }
+
+    /**
+     * LISTEN until stopped. Returns false if the server does not support it (caller switches to polling),
+     * true after a connection failure (caller reconnects).
+     */
+    private boolean listen() {
+        try (Connection connection = DriverManager.getConnection(jdbcUrl, jdbcUsername, jdbcPassword)) {
+            PGConnection pgConnection;
+            try {
+                pgConnection = connection.unwrap(PGConnection.class);
+            } catch (SQLException e) {
+                return false;
+            }
+
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("LISTEN " + CONNECTIONS_CHANNEL);
+                statement.execute("LISTEN " + API_METADATA_CHANNEL);
+            }
+            logger.info("👂 Listening for configuration changes on channels {}, {}", CONNECTIONS_CHANNEL, API_METADATA_CHANNEL);
+
+            // Catch up on anything missed while not listening
+            poll();
+
+            int waitMs = (int) Math.min(Integer.MAX_VALUE, TimeUnit.SECONDS.toMillis(pollIntervalSeconds));
+            while (running) {
+                PGNotification[] notifications = pgConnection.getNotifications(waitMs);
+                if (notifications == null || notifications.length == 0) {
+                    continue;
+                }
+                handleNotifications(notifications);
+            }
+            return true;
+
+        } catch (SQLException e) {
+            if (running) {
+                logger.warn("⚠️ Configuration change listener connection failed, reconnecting in {} ms: {}",
+                    RECONNECT_BACKOFF_MS, e.getMessage());
+                sleep(RECONNECT_BACKOFF_MS);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Apply a burst of notifications, each connection / API once
+     */
+    private void handleNotifications(PGNotification[] notifications) {
+        Set<String> connectionIds = new LinkedHashSet<>();
+        Set<String> apiNames = new LinkedHashSet<>();
+        boolean fullReconcile = false;
+
+        for (PGNotification notification : notifications) {
+            String payload = notification.getParameter();
+            if (CONNECTIONS_CHANNEL.equals(notification.getName())) {
+                if (payload == null || payload.isEmpty()) {
+                    fullReconcile = true;
+                } else {
+                    connectionIds.add(payload);
+                }
+            } else if (API_METADATA_CHANNEL.equals(notification.getName()) && payload != null && !payload.isEmpty()) {
+                apiNames.add(payload);
+            }
+        }
+
+        if (fullReconcile) {
+            dynamicKafkaConsumerManager.reconcileConnections();
+        } else {
+            for (String connectionId : connectionIds) {
+                try {
+                    dynamicKafkaConsumerManager.reloadConnection(UUID.fromString(connectionId));
+                } catch (IllegalArgumentException e) {
+                    logger.warn("⚠️ Ignoring {} notification with invalid connection ID: {}", CONNECTIONS_CHANNEL, connectionId);
+                }
+            }
+        }
+
+        for (String apiName : apiNames) {
+            apiMetadataService.refreshApi(apiName);
+        }
+    }
+
+    private void poll() {
+        try {
+            dynamicKafkaConsumerManager.reconcileConnections();
+        } catch (Exception e) {
+            logger.error("❌ Error reconciling Kafka connections: {}", e.getMessage(), e);
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.kafkaparsing.service;
+
+import com.example.kafkaparsing.model.ParsedAuditData;
+import com.example.kafkaparsing.model.RecordAck;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A correlation store slot. The ParsedAuditData is either resident on the heap or spilled to a
+ * {@link CorrelationSpillFile}, in which case only this small record stays in memory.
+ * Mutable state is guarded by the entry's monitor and managed by {@link BoundedCorrelationStore}.
+ *
+ * Who gets to emit the transaction is decided by a CAS on its state: an entry starts PENDING and moves
+ * exactly once to COMPLETED (claimed by its counterpart), TIMED_OUT (claimed by its deadline) or
+ * ORPHANED (pushed out by memory pressure, cleanup or a newer entry for the same key). Only the path
+ * whose transition succeeds takes the data; everyone else backs off.
+ */
+public class CorrelationEntry {
+
+    public enum State {
+        PENDING,
+        COMPLETED,
+        TIMED_OUT,
+        ORPHANED
+    }
+
+    private static final State[] STATES = State.values();
+    private static final AtomicIntegerFieldUpdater<CorrelationEntry> STATE_UPDATER =
+        AtomicIntegerFieldUpdater.newUpdater(CorrelationEntry.class, "state");
+
+    private final CorrelationKey key;
+    private final CorrelationTimeoutScheduler.Timeout deadline;
+    private final long insertedAtMillis;
+
+    ParsedAuditData data;
+    // Record acknowledgements of the data, kept here so they survive spilling
+    List<RecordAck> acks;
+    long spillOffset = -1;
+    int spillLength;
+    long retainedBytes;
+    boolean released;
+
+    private volatile int state = State.PENDING.ordinal();
+
+    CorrelationEntry(CorrelationKey key, ParsedAuditData data, CorrelationTimeoutScheduler.Timeout deadline, long retainedBytes) {
+        this.key = key;
+        this.data = data;
+        this.deadline = deadline;
+        this.retainedBytes = retainedBytes;
+        this.insertedAtMillis = System.currentTimeMillis();
+    }
+
+    public CorrelationKey getKey() {
+        return key;
+    }
+
+    public CorrelationTimeoutScheduler.Timeout getDeadline() {
+        return deadline;
+    }
+
+    public long getInsertedAtMillis() {
+        return insertedAtMillis;
+    }
+
+    public State getState() {
+        return STATES[state];
+    }
+
+    /**
+     * Move from PENDING to a final state; false if another path got there first
+     */
+    boolean claim(State to) {
+        return STATE_UPDATER.compareAndSet(this, State.PENDING.ordinal(), to.ordinal());
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.kafkaparsing.service;
+
+import java.util.UUID;
+
+/**
+ * Compact correlation key. Canonical UUID request IDs (the common case) are held as two longs
+ * instead of a 36 character String; anything else falls back to the original String.
+ */
+public final class CorrelationKey {
+
+    private static final byte FORMAT_STRING = 0;
+    private static final byte FORMAT_UUID_LOWER = 1;
+    private static final byte FORMAT_UUID_UPPER = 2;
+
+    private final long mostSigBits;
+    private final long leastSigBits;
+    private final byte format;
+    private final String value;
+
+    private CorrelationKey(long mostSigBits, long leastSigBits, byte format, String value) {
+        this.mostSigBits = mostSigBits;
+        this.leastSigBits = leastSigBits;
+        this.format = format;
+        this.value = value;
+    }
+
+    /**
+     * Encode a correlation ID, using the two-long form when it is a canonical UUID
+     */
+    public static CorrelationKey of(String correlationId) {
+        if (correlationId == null) {
+            throw new IllegalArgumentException("Correlation ID must not be null");
+        }
+        if (correlationId.length() == 36) {
+            byte format = uuidFormat(correlationId);
+            if (format != FORMAT_STRING) {
+                return new CorrelationKey(parseHex(correlationId, 0, 8) << 32
+                        | parseHex(correlationId, 9, 13) << 16
+                        | parseHex(correlationId, 14, 18),
+                    parseHex(correlationId, 19, 23) << 48
+                        | parseHex(correlationId, 24, 36),
+                    format, null);
+            }
+        }
+        return new CorrelationKey(0L, 0L, FORMAT_STRING, correlationId);
+    }
+
+    /**
+     * Returns FORMAT_UUID_LOWER / FORMAT_UUID_UPPER if the ID round-trips through the two-long form, else FORMAT_STRING
+     */
+    private static byte uuidFormat(String s) {
+        boolean lower = false;
+        boolean upper = false;
+        for (int i = 0; i < 36; i++) {
+            char c = s.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return FORMAT_STRING;
+                }
+            } else if (c >= 'a' && c <= 'f') {
+                lower = true;
+            } else if (c >= 'A' && c <= 'F') {
+                upper = true;
+            } else if (c < '0' || c > '9') {
+                return FORMAT_STRING;
+            }
+        }
+        if (lower && upper) {
+            return FORMAT_STRING;
+        }
+        return upper ? FORMAT_UUID_UPPER : FORMAT_UUID_LOWER;
+    }
+
+    private static long parseHex(String s, int from, int to) {
+        long result = 0;
+        for (int i = from; i < to; i++) {
+            result = (result << 4) | Character.digit(s.charAt(i), 16);
+        }
+        return result;
+    }
+
+    /**
+     * Approximate heap footprint of this key
+     */
+    public long retainedBytes() {
+        // header + two longs + byte + reference, aligned; plus the String when not compact
+        return format == FORMAT_STRING ? 32 + 24 + 16 + value.length() : 32;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CorrelationKey)) {
+            return false;
+        }
+        CorrelationKey other = (CorrelationKey) o;
+        if (format != other.format) {
+            return false;
+        }
+        return format == FORMAT_STRING
+            ? value.equals(other.value)
+            : mostSigBits == other.mostSigBits && leastSigBits == other.leastSigBits;
+    }
+
+    @Override
+    public int hashCode() {
+        if (format == FORMAT_STRING) {
+            return value.hashCode();
+        }
+        long hilo = mostSigBits ^ leastSigBits;
+        return ((int) (hilo >> 32)) ^ (int) hilo ^ format;
+    }
+
+    /**
+     * The original correlation ID
+     */
+    @Override
+    public String toString() {
+        if (format == FORMAT_STRING) {
+            return value;
+        }
+        String uuid = new UUID(mostSigBits, leastSigBits).toString();
+        return format == FORMAT_UUID_UPPER ? uuid.toUpperCase() : uuid;
+    }
+}
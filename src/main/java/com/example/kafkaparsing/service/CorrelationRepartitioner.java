@@ -0,0 +1,446 @@
+package com.example.kafkaparsing.service;
+
+import com.example.kafkaparsing.model.MessageEnvelope;
+import com.example.kafkaparsing.model.RecordAck;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.AcknowledgingMessageListener;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Optional repartition stage, so REQUEST/RESPONSE pairs meet no matter how the source topics are keyed
+ * or how many parser instances run.
+ *
+ * With audit.repartition.enabled the source listeners still enhance and forward every record, but instead
+ * of processing it they publish the enhanced payload to an internal topic, keyed and partitioned by its
+ * correlation ID (murmur2 of the ID, as Kafka's default partitioner does). This service's consumer group
+ * reads that topic and processes the records, so both halves of a transaction reach the owner of the same
+ * internal partition, and parser instances scale out up to its partition count.
+ *
+ * Correlation state follows partition ownership: when partitions are revoked, the pending REQUESTs and
+ * orphaned RESPONSEs of their correlation IDs are flushed as incomplete before the offsets are committed.
+ * Document IDs are deterministic, so the half that reaches the new owner merges into the same document.
+ */
+@Service
+public class CorrelationRepartitioner {
+
+    private static final Logger logger = LoggerFactory.getLogger(CorrelationRepartitioner.class);
+
+    // Where a repartitioned record came from, set by the publishing instance
+    private static final String CONNECTION_ID_HEADER = "audit-connection-id";
+    private static final String API_NAME_HEADER = "audit-api-name";
+
+    @Value("${audit.repartition.enabled:false}")
+    private boolean enabled;
+
+    @Value("${audit.repartition.topic:audit-correlation-repartition}")
+    private String topic;
+
+    @Value("${audit.repartition.group-id:kafka-parsing-correlation}")
+    private String groupId;
+
+    // Consumer threads of this instance for the internal topic, useful up to its partition count
+    @Value("${audit.repartition.concurrency:1}")
+    private int concurrency;
+
+    @Value("${audit.repartition.max-poll-records:500}")
+    private int maxPollRecords;
+
+    @Value("${spring.kafka.bootstrap-servers:localhost:9092}")
+    private String bootstrapServers;
+
+    // Offsets of the internal topic are committed like those of the source topics
+    @Value("${audit.consumer.ack-mode:auto}")
+    private String ackMode;
+
+    @Value("${audit.consumer.commit-interval-ms:1000}")
+    private long commitIntervalMs;
+
+    @Value("${audit.consumer.max-uncommitted:100000}")
+    private int maxUncommitted;
+
+    @Value("${audit.parallel.revoke-timeout-ms:10000}")
+    private long revokeTimeoutMs;
+
+    @Autowired
+    private KafkaTemplate<String, byte[]> byteArrayKafkaTemplate;
+
+    @Autowired
+    private DynamicMessageProcessor dynamicMessageProcessor;
+
+    @Autowired
+    private ExtractionPlanCache extractionPlanCache;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Partition count of the internal topic, 0 until looked up
+    private volatile int partitionCount;
+
+    private volatile ConcurrentMessageListenerContainer<String, byte[]> container;
+    // Set when offsets are committed once the records' documents are indexed
+    private volatile OffsetTracker tracker;
+    // Records that could not be published are processed here instead, off the producer thread
+    private ExecutorService fallbackExecutor;
+
+    private final Set<Integer> assignedPartitions = ConcurrentHashMap.newKeySet();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong processedLocally = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong revocations = new AtomicLong();
+    private final AtomicLong flushedOnRevoke = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        fallbackExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "repartition-fallback");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("🔀 Correlation repartitioning enabled: records are processed from {} (group {})", topic, groupId);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start consuming the internal topic; handlers resolves the connection a record was published for.
+     * Called by DynamicKafkaConsumerManager once its connections are attached.
+     */
+    synchronized void start(Function<UUID, SharedConsumer.ConnectionHandler> handlers) {
+        if (!enabled || container != null) {
+            return;
+        }
+        ConcurrentKafkaListenerContainerFactory<String, byte[]> containerFactory = new ConcurrentKafkaListenerContainerFactory<>();
+        containerFactory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(consumerProperties()));
+        container = containerFactory.createContainer(topic);
+        container.setConcurrency(Math.max(1, concurrency));
+
+        ContainerProperties containerProperties = container.getContainerProperties();
+        if (ackAfterIndexing()) {
+            tracker = new OffsetTracker(commitIntervalMs, maxUncommitted);
+            containerProperties.setAckMode(ContainerProperties.AckMode.MANUAL);
+        }
+        containerProperties.setConsumerRebalanceListener(createRebalanceListener());
+        container.setupMessageListener(createListener(handlers));
+        container.start();
+
+        logger.info("🔀 Repartition stage started: topic {}, group {}, concurrency {}", topic, groupId, container.getConcurrency());
+    }
+
+    /**
+     * Stop consuming; the revocation flushes this instance's correlation state
+     */
+    synchronized void stop() {
+        if (container != null) {
+            try {
+                container.stop();
+            } catch (Exception e) {
+                logger.error("Error stopping repartition consumer: {}", e.getMessage(), e);
+            }
+            container = null;
+        }
+        if (fallbackExecutor != null) {
+            fallbackExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Send acknowledgements held back by the commit interval, and resume consumption paused for them
+     */
+    void flushCommits() {
+        OffsetTracker tracker = this.tracker;
+        ConcurrentMessageListenerContainer<String, byte[]> container = this.container;
+        if (tracker != null) {
+            tracker.flush();
+            if (container != null && container.isPauseRequested() && tracker.hasRoom()) {
+                logger.info("▶️ Offset commits of {} caught up, resuming its consumer", topic);
+                container.resume();
+            }
+        }
+    }
+
+    /**
+     * Publish an enhanced record to the internal partition of its correlation ID instead of processing it
+     * here. The record's acknowledgement (if any) is held until the send is confirmed; if the send fails the
+     * record is processed on this instance, where it may miss its other half.
+     */
+    void publish(UUID connectionId, String correlationId, MessageEnvelope envelope) {
+        RecordAck ack = envelope.getAck();
+        if (ack != null) {
+            ack.retain();
+        }
+        try {
+            Integer partition = correlationId != null ? partitionFor(correlationId) : null;
+            Long timestamp = envelope.getTimestamp() >= 0 ? envelope.getTimestamp() : null;
+            ProducerRecord<String, byte[]> record = new ProducerRecord<>(topic, partition, timestamp, correlationId,
+                envelope.getPayloadBytes());
+            record.headers().add(CONNECTION_ID_HEADER, connectionId.toString().getBytes(StandardCharsets.UTF_8));
+            if (envelope.getExtractedApiName() != null) {
+                record.headers().add(API_NAME_HEADER, envelope.getExtractedApiName().getBytes(StandardCharsets.UTF_8));
+            }
+
+            byteArrayKafkaTemplate.send(record).addCallback(result -> {
+                published.incrementAndGet();
+                release(ack);
+            }, e -> processLocally(envelope, ack, e));
+        } catch (Exception e) {
+            processLocally(envelope, ack, e);
+        }
+    }
+
+    private void processLocally(MessageEnvelope envelope, RecordAck ack, Throwable cause) {
+        processedLocally.incrementAndGet();
+        logger.warn("⚠️ Failed to publish record (topic {}, partition {}, offset {}) to {}, processing it locally: {}",
+            envelope.getTopic(), envelope.getPartition(), envelope.getOffset(), topic, cause.getMessage());
+        try {
+            fallbackExecutor.execute(() -> {
+                try {
+                    dynamicMessageProcessor.processMessage(envelope);
+                } finally {
+                    release(ack);
+                }
+            });
+        } catch (Exception e) {
+            // Shutting down; the record stays unacknowledged and is consumed again
+            logger.error("❌ Could not process record locally at offset {}: {}", envelope.getOffset(), e.getMessage());
+        }
+    }
+
+    private static void release(RecordAck ack) {
+        if (ack != null) {
+            ack.release();
+        }
+    }
+
+    /**
+     * Internal partition of a correlation ID: murmur2 of its UTF-8 bytes, as the default partitioner
+     * would choose for that key
+     */
+    int partitionFor(String correlationId) {
+        return Utils.toPositive(Utils.murmur2(correlationId.getBytes(StandardCharsets.UTF_8))) % partitionCount();
+    }
+
+    private int partitionCount() {
+        int count = partitionCount;
+        if (count == 0) {
+            List<PartitionInfo> partitions = byteArrayKafkaTemplate.partitionsFor(topic);
+            if (partitions == null || partitions.isEmpty()) {
+                throw new IllegalStateException("No partitions found for repartition topic " + topic);
+            }
+            count = partitions.size();
+            partitionCount = count;
+            logger.info("🔀 Repartition topic {} has {} partitions", topic, count);
+        }
+        return count;
+    }
+
+    /**
+     * Matches the correlation IDs that belong to the given partitions of the internal topic; everything
+     * if the partition count cannot be read, since flushing too much only costs an extra merge
+     */
+    private Predicate<CorrelationKey> keysOf(Collection<TopicPartition> partitions) {
+        Set<Integer> owned = new HashSet<>();
+        for (TopicPartition partition : partitions) {
+            if (topic.equals(partition.topic())) {
+                owned.add(partition.partition());
+            }
+        }
+        try {
+            partitionCount();
+        } catch (Exception e) {
+            logger.warn("⚠️ Could not read partitions of {}, flushing all correlation state: {}", topic, e.getMessage());
+            return key -> true;
+        }
+        return key -> owned.contains(partitionFor(key.toString()));
+    }
+
+    private AcknowledgingMessageListener<String, byte[]> createListener(Function<UUID, SharedConsumer.ConnectionHandler> handlers) {
+        return (record, acknowledgment) -> {
+            RecordAck ack = null;
+            if (tracker != null) {
+                OffsetTracker.Entry entry = tracker.track(record, acknowledgment);
+                ack = new RecordAck(() -> tracker.complete(entry));
+                if (tracker.isFull()) {
+                    pauseForCommits();
+                }
+            }
+            try {
+                handleRecord(record, handlers, ack);
+            } finally {
+                release(ack);
+            }
+        };
+    }
+
+    private void handleRecord(ConsumerRecord<String, byte[]> record, Function<UUID, SharedConsumer.ConnectionHandler> handlers,
+                              RecordAck ack) {
+        String connectionId = header(record, CONNECTION_ID_HEADER);
+        SharedConsumer.ConnectionHandler handler = null;
+        try {
+            handler = connectionId != null ? handlers.apply(UUID.fromString(connectionId)) : null;
+        } catch (IllegalArgumentException e) {
+            // Not published by this application
+        }
+        if (handler == null) {
+            skipped.incrementAndGet();
+            logger.warn("⚠️ No connection {} for repartitioned record at {}-{} offset {}, skipping", connectionId,
+                record.topic(), record.partition(), record.offset());
+            return;
+        }
+
+        try {
+            String apiName = header(record, API_NAME_HEADER);
+            // The payload is the enhanced message; streaming APIs are read from the token stream again
+            JsonNode messageNode = extractionPlanCache.isStreaming(apiName) ? null : objectMapper.readTree(record.value());
+            MessageEnvelope envelope = new MessageEnvelope(record.key(), record.topic(), record.partition(), record.offset(),
+                record.timestamp(), handler.connectionName, handler.details, apiName, messageNode, record.value());
+            envelope.setAck(ack);
+            consumed.incrementAndGet();
+            dynamicMessageProcessor.processMessage(envelope);
+        } catch (Exception e) {
+            logger.error("Error processing repartitioned record at {}-{} offset {}: {}", record.topic(), record.partition(),
+                record.offset(), e.getMessage(), e);
+        }
+    }
+
+    private void pauseForCommits() {
+        ConcurrentMessageListenerContainer<String, byte[]> container = this.container;
+        if (container != null && !container.isPauseRequested()) {
+            logger.warn("⚠️ {} records of {} waiting for an offset commit, pausing its consumer", maxUncommitted, topic);
+            container.pause();
+        }
+    }
+
+    private static String header(ConsumerRecord<?, ?> record, String name) {
+        Header header = record.headers().lastHeader(name);
+        return header != null && header.value() != null ? new String(header.value(), StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Flush the correlation state of revoked partitions before their offsets are committed, so nothing this
+     * instance still holds is lost to the new owner
+     */
+    private ConsumerAwareRebalanceListener createRebalanceListener() {
+        return new ConsumerAwareRebalanceListener() {
+            @Override
+            public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+                if (partitions.isEmpty()) {
+                    return;
+                }
+                for (TopicPartition partition : partitions) {
+                    assignedPartitions.remove(partition.partition());
+                }
+                revocations.incrementAndGet();
+                int flushed = dynamicMessageProcessor.flushCorrelations(keysOf(partitions));
+                flushedOnRevoke.addAndGet(flushed);
+                logger.info("🔀 Partitions {} revoked, flushed {} correlation entries", partitions, flushed);
+
+                if (tracker != null) {
+                    try {
+                        if (!tracker.revoke(partitions, revokeTimeoutMs)) {
+                            logger.warn("⚠️ Records of revoked partitions {} still in flight after {} ms, they will be consumed again",
+                                partitions, revokeTimeoutMs);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            @Override
+            public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+                for (TopicPartition partition : partitions) {
+                    assignedPartitions.add(partition.partition());
+                }
+                if (!partitions.isEmpty()) {
+                    logger.info("🔀 Partitions {} assigned", partitions);
+                }
+            }
+        };
+    }
+
+    private boolean ackAfterIndexing() {
+        return "indexed".equalsIgnoreCase(ackMode);
+    }
+
+    private Map<String, Object> consumerProperties() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, !ackAfterIndexing());
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+        return props;
+    }
+
+    /**
+     * Publishing and ownership counters for the stats endpoint
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        if (!enabled) {
+            return stats;
+        }
+        List<Integer> assigned = new ArrayList<>(assignedPartitions);
+        Collections.sort(assigned);
+        stats.put("topic", topic);
+        stats.put("groupId", groupId);
+        stats.put("partitions", partitionCount);
+        stats.put("assignedPartitions", assigned);
+        stats.put("running", container != null && container.isRunning());
+        stats.put("published", published.get());
+        stats.put("processedLocally", processedLocally.get());
+        stats.put("consumed", consumed.get());
+        stats.put("skipped", skipped.get());
+        stats.put("revocations", revocations.get());
+        stats.put("flushedOnRevoke", flushedOnRevoke.get());
+        return stats;
+    }
+}
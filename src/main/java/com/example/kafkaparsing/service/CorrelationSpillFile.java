@@ -0,0 +1,144 @@
+package com.example.kafkaparsing.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory-mapped overflow file for correlation entries that no longer fit the heap budget.
+ * Records are [int length][bytes], appended to one of SEGMENTS equal segments at a time. When the current
+ * segment is full, writing moves on to a segment whose records have all been released; entries are spilled
+ * oldest first and complete or time out in roughly that order, so old segments empty out while newer
+ * ones fill. A long-lived record holds on to its segment only until it completes or times out.
+ */
+public class CorrelationSpillFile implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CorrelationSpillFile.class);
+    private static final int HEADER_BYTES = Integer.BYTES;
+    private static final int SEGMENTS = 16;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int segmentSize;
+
+    // Guarded by this
+    private final int[] segmentRecords = new int[SEGMENTS];
+    private int segment;
+    private int writePosition;
+    private int liveRecords;
+    private long liveBytes;
+
+    /**
+     * @param capacity size of the mapping in bytes, at most Integer.MAX_VALUE (a MappedByteBuffer is int-indexed)
+     */
+    public CorrelationSpillFile(Path path, long capacity) throws IOException {
+        if (capacity <= 0 || capacity > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Spill file capacity must be between 1 byte and 2 GB: " + capacity);
+        }
+        this.path = path;
+        this.capacity = (int) capacity;
+        this.segmentSize = this.capacity / SEGMENTS;
+        Files.createDirectories(path.getParent());
+        // Offsets are only meaningful for this process, leftovers from a previous run are discarded
+        Files.deleteIfExists(path);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.SPARSE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        logger.info("💾 Correlation spill file {} mapped ({} MB)", path, capacity / (1024 * 1024));
+    }
+
+    /**
+     * Append a record and return its offset, or -1 if no segment has room for it
+     */
+    public synchronized long append(byte[] bytes) {
+        long size = (long) HEADER_BYTES + bytes.length;
+        if (size > segmentSize) {
+            return -1;
+        }
+        if (segmentRecords[segment] == 0) {
+            writePosition = segment * segmentSize;
+        }
+        long required = writePosition + size;
+        if (required > (long) (segment + 1) * segmentSize) {
+            int free = findFreeSegment();
+            if (free < 0) {
+                return -1;
+            }
+            segment = free;
+            writePosition = free * segmentSize;
+            required = writePosition + size;
+        }
+        int offset = writePosition;
+        buffer.putInt(offset, bytes.length);
+        ByteBuffer target = buffer.duplicate();
+        target.position(offset + HEADER_BYTES);
+        target.put(bytes);
+        writePosition = (int) required;
+        segmentRecords[segment]++;
+        liveRecords++;
+        liveBytes += bytes.length;
+        return offset;
+    }
+
+    /**
+     * Read a live record back
+     */
+    public byte[] read(long offset) {
+        ByteBuffer source = buffer.duplicate();
+        int length = source.getInt((int) offset);
+        byte[] bytes = new byte[length];
+        source.position((int) offset + HEADER_BYTES);
+        source.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Mark a record as no longer needed; its segment is reused once all of its records are released
+     */
+    public synchronized void release(long offset, int length) {
+        segmentRecords[(int) (offset / segmentSize)]--;
+        liveRecords--;
+        liveBytes -= length;
+    }
+
+    public synchronized int getLiveRecords() {
+        return liveRecords;
+    }
+
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * Next segment after the current one without live records, -1 if all of them hold some
+     */
+    private int findFreeSegment() {
+        for (int i = 1; i <= SEGMENTS; i++) {
+            int candidate = (segment + i) % SEGMENTS;
+            if (segmentRecords[candidate] == 0) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("⚠️ Failed to close spill file {}: {}", path, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.kafkaparsing.service;
+
+import com.example.kafkaparsing.model.ParsedAuditData;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Holds in-flight correlation state (pending REQUESTs, orphaned RESPONSEs) keyed by correlation ID.
+ * Implementations own the deadline of each entry: replacing or removing an entry cancels it.
+ * Each entry is handed out at most once, whichever of remove, its deadline or eviction comes first.
+ */
+public interface CorrelationStore {
+
+    /**
+     * Called when an entry has to leave the store before it was completed or timed out
+     */
+    interface EvictionHandler {
+        void onEvicted(CorrelationKey key, ParsedAuditData data);
+    }
+
+    /**
+     * Store data for a key, replacing (and cancelling the deadline of) any previous entry
+     */
+    void put(CorrelationKey key, ParsedAuditData data, CorrelationTimeoutScheduler.Timeout deadline);
+
+    /**
+     * Remove the entry for a key and return its data, or null if absent
+     */
+    ParsedAuditData remove(CorrelationKey key);
+
+    /**
+     * Remove the entry only if it is still guarded by the given deadline
+     */
+    ParsedAuditData remove(CorrelationKey key, CorrelationTimeoutScheduler.Timeout deadline);
+
+    /**
+     * Remove entries inserted before the cutoff and return their data, to be indexed as incomplete. Only
+     * looks at entries older than the cutoff (and removed ones not yet cleaned up), not the whole store.
+     */
+    List<ParsedAuditData> removeInsertedBefore(long cutoffMillis);
+
+    /**
+     * Remove every entry whose key matches and return their data. Walks the whole store, so it is meant
+     * for rare events such as a partition of the correlation IDs moving to another instance.
+     */
+    List<ParsedAuditData> removeMatching(Predicate<CorrelationKey> filter);
+
+    int size();
+
+    /**
+     * Estimated heap bytes retained by the store
+     */
+    long getRetainedBytes();
+
+    long getSpilledEntries();
+
+    long getEvictedEntries();
+
+    /**
+     * Entries claimed by their counterpart (remove by key) and by their deadline so far
+     */
+    long getCompletedEntries();
+
+    long getTimedOutEntries();
+
+    /**
+     * Index entries looked at by removeInsertedBefore so far
+     */
+    long getCleanupScannedEntries();
+
+    void close();
+}
@@ -0,0 +1,572 @@
+package com.example.kafkaparsing.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashed timing wheel for Request/Response correlation deadlines.
+ *
+ * A single worker thread advances the wheel once per tick. Scheduling and cancelling are O(1):
+ * callers only enqueue the timeout (or flip its state), and the worker moves it into / out of
+ * its bucket. Timeouts that expire on the same tick are handed to the {@link ExpiryHandler}
+ * in batches instead of one callback per deadline.
+ *
+ * Event-time deadlines ({@link #scheduleAt}) live outside the wheel, ordered by deadline per event
+ * clock (one clock per partition). They expire once the clock's watermark, the highest event time
+ * reported through {@link #advance}, passes them, and are delivered on the next tick. A clock that
+ * has not advanced for idleAdvanceMs moves on with the wall clock, so an idle partition still
+ * flushes what it holds. Cancelled deadlines are swept out of a clock's queue once they outnumber the
+ * live ones, and a clock without deadlines and without events for the idle window (CLOCK_RETENTION_MS
+ * when idle advance is off) is dropped, e.g. the clocks of a finished replay job.
+ */
+public class CorrelationTimeoutScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(CorrelationTimeoutScheduler.class);
+
+    // Upper bound of newly scheduled timeouts moved into the wheel per tick, keeps a tick bounded under bursts
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+    // Cancelled event-time deadlines a clock keeps at most before its queue is swept
+    private static final int MIN_COMPACT_CANCELLED = 1024;
+    // Idle time after which an empty event clock is dropped when idle advance is off
+    private static final long CLOCK_RETENTION_MS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * What a timeout guards: a pending REQUEST or an orphaned RESPONSE
+     */
+    public enum Kind {
+        REQUEST,
+        ORPHANED_RESPONSE
+    }
+
+    /**
+     * Receives expired timeouts, at most batchSize per call
+     */
+    public interface ExpiryHandler {
+        void onExpired(List<Timeout> expired);
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final int batchSize;
+    private final Bucket[] wheel;
+    private final ExpiryHandler expiryHandler;
+    private final long idleAdvanceNanos;
+    private final long clockRetentionNanos;
+
+    // Event clocks by key, and event-time timeouts their watermark has passed, waiting for the next tick
+    private final Map<String, EventClock> clocks = new ConcurrentHashMap<>();
+    private final Queue<Timeout> dueTimeouts = new ConcurrentLinkedQueue<>();
+
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingTimeouts = new AtomicLong();
+    private final AtomicLong expiredTimeouts = new AtomicLong();
+
+    private final Thread worker;
+    private volatile boolean running;
+    private volatile long startTime;
+    private long tick;
+
+    public CorrelationTimeoutScheduler(long tickDurationMs, int ticksPerWheel, int batchSize, ExpiryHandler expiryHandler) {
+        this(tickDurationMs, ticksPerWheel, batchSize, 0, expiryHandler);
+    }
+
+    /**
+     * @param idleAdvanceMs time after which an event clock without new events follows the wall clock, 0 = never
+     */
+    public CorrelationTimeoutScheduler(long tickDurationMs, int ticksPerWheel, int batchSize, long idleAdvanceMs,
+                                       ExpiryHandler expiryHandler) {
+        if (tickDurationMs <= 0) {
+            throw new IllegalArgumentException("tickDurationMs must be > 0: " + tickDurationMs);
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException("ticksPerWheel must be in (0, 2^30]: " + ticksPerWheel);
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickDurationMs);
+        this.wheel = createWheel(ticksPerWheel);
+        this.mask = wheel.length - 1;
+        this.batchSize = Math.max(1, batchSize);
+        this.expiryHandler = expiryHandler;
+        this.idleAdvanceNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, idleAdvanceMs));
+        this.clockRetentionNanos = idleAdvanceNanos > 0 ? idleAdvanceNanos : TimeUnit.MILLISECONDS.toNanos(CLOCK_RETENTION_MS);
+        this.worker = new Thread(this::run, "correlation-timeout-wheel");
+        this.worker.setDaemon(true);
+    }
+
+    private static Bucket[] createWheel(int ticksPerWheel) {
+        int normalized = 1;
+        while (normalized < ticksPerWheel) {
+            normalized <<= 1;
+        }
+        Bucket[] buckets = new Bucket[normalized];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket();
+        }
+        return buckets;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        startTime = System.nanoTime();
+        running = true;
+        worker.start();
+        logger.info("⏱️ Correlation timeout wheel started: {} buckets, {} ms tick", wheel.length,
+            TimeUnit.NANOSECONDS.toMillis(tickNanos));
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join(TimeUnit.NANOSECONDS.toMillis(tickNanos) * 10 + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("⏱️ Correlation timeout wheel stopped with {} outstanding timeouts", pendingTimeouts.get());
+    }
+
+    /**
+     * Schedule a deadline for a correlation key. The returned handle can be cancelled in O(1).
+     */
+    public Timeout schedule(CorrelationKey key, Kind kind, long delay, TimeUnit unit) {
+        return schedule(key, kind, null, delay, unit);
+    }
+
+    /**
+     * Schedule a deadline tagged with the API it belongs to, handed back by Timeout.getApiName() on expiry
+     */
+    public Timeout schedule(CorrelationKey key, Kind kind, String apiName, long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() - startTime + unit.toNanos(Math.max(0, delay));
+        Timeout timeout = new Timeout(this, key, kind, apiName, deadline);
+        pendingTimeouts.incrementAndGet();
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Schedule a deadline in event time (epoch millis) on the given event clock. A deadline the clock's
+     * watermark has already passed expires on the next tick.
+     */
+    public Timeout scheduleAt(CorrelationKey key, Kind kind, String clockKey, long deadlineMillis) {
+        return scheduleAt(key, kind, null, clockKey, deadlineMillis);
+    }
+
+    /**
+     * Schedule an event-time deadline tagged with the API it belongs to
+     */
+    public Timeout scheduleAt(CorrelationKey key, Kind kind, String apiName, String clockKey, long deadlineMillis) {
+        Timeout timeout = new Timeout(this, key, kind, apiName, deadlineMillis);
+        pendingTimeouts.incrementAndGet();
+        while (true) {
+            EventClock clock = clocks.computeIfAbsent(clockKey, k -> new EventClock());
+            synchronized (clock) {
+                if (clock.dropped) {
+                    continue; // pruned in between, take the new one
+                }
+                clock.lastEventNanos = System.nanoTime();
+                if (deadlineMillis <= clock.watermark) {
+                    dueTimeouts.add(timeout);
+                } else {
+                    timeout.clock = clock;
+                    clock.deadlines.add(timeout);
+                }
+                return timeout;
+            }
+        }
+    }
+
+    /**
+     * Report an event time seen on an event clock; the watermark only moves forward
+     */
+    public void advance(String clockKey, long eventTimeMillis) {
+        while (true) {
+            EventClock clock = clocks.computeIfAbsent(clockKey, k -> new EventClock());
+            synchronized (clock) {
+                if (clock.dropped) {
+                    continue;
+                }
+                clock.lastAdvanceNanos = System.nanoTime();
+                clock.lastEventNanos = clock.lastAdvanceNanos;
+                if (eventTimeMillis > clock.watermark) {
+                    clock.watermark = eventTimeMillis;
+                    clock.collectDue(dueTimeouts);
+                }
+                return;
+            }
+        }
+    }
+
+    public int getEventClockCount() {
+        return clocks.size();
+    }
+
+    /**
+     * How far the slowest event clock with pending deadlines is behind the wall clock, in ms
+     */
+    public long getMaxWatermarkLagMs() {
+        long now = System.currentTimeMillis();
+        long lag = 0;
+        for (EventClock clock : clocks.values()) {
+            synchronized (clock) {
+                if (!clock.deadlines.isEmpty() && clock.watermark > Long.MIN_VALUE) {
+                    lag = Math.max(lag, now - clock.watermark);
+                }
+            }
+        }
+        return lag;
+    }
+
+    public long getPendingTimeouts() {
+        return pendingTimeouts.get();
+    }
+
+    public long getExpiredTimeouts() {
+        return expiredTimeouts.get();
+    }
+
+    private void run() {
+        List<Timeout> expired = new ArrayList<>();
+        while (running) {
+            long now = waitForNextTick();
+            if (now < 0) {
+                continue;
+            }
+            int idx = (int) (tick & mask);
+            processCancelled();
+            transferNewTimeouts();
+            wheel[idx].expire(now, expired);
+            advanceIdleClocks();
+            pruneIdleClocks();
+            collectDueTimeouts(expired);
+            tick++;
+            deliver(expired);
+        }
+    }
+
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long now = System.nanoTime() - startTime;
+            long sleepNanos = deadline - now;
+            if (sleepNanos <= 0) {
+                return now;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    private void transferNewTimeouts() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout timeout = newTimeouts.poll();
+            if (timeout == null) {
+                break;
+            }
+            if (timeout.state != Timeout.ST_INIT) {
+                continue; // cancelled before it reached the wheel
+            }
+            long calculated = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (calculated - tick) / wheel.length;
+            // Deadlines already in the past are placed in the current bucket and fire on this tick
+            long ticks = Math.max(calculated, tick);
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    private void advanceIdleClocks() {
+        if (idleAdvanceNanos <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (EventClock clock : clocks.values()) {
+            synchronized (clock) {
+                long idle = now - clock.lastAdvanceNanos;
+                if (idle >= idleAdvanceNanos && clock.watermark > Long.MIN_VALUE) {
+                    // Move on by the wall time passed since the clock last moved; repeats every idleAdvanceMs
+                    clock.watermark += TimeUnit.NANOSECONDS.toMillis(idle);
+                    clock.lastAdvanceNanos = now;
+                    clock.collectDue(dueTimeouts);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop clocks without deadlines that have seen no event for the retention window
+     */
+    private void pruneIdleClocks() {
+        long now = System.nanoTime();
+        for (Map.Entry<String, EventClock> entry : clocks.entrySet()) {
+            EventClock clock = entry.getValue();
+            synchronized (clock) {
+                if (clock.deadlines.isEmpty() && now - clock.lastEventNanos >= clockRetentionNanos) {
+                    clock.dropped = true;
+                    clocks.remove(entry.getKey(), clock);
+                }
+            }
+        }
+    }
+
+    private void collectDueTimeouts(List<Timeout> expired) {
+        while (true) {
+            Timeout timeout = dueTimeouts.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.expire()) {
+                expired.add(timeout);
+            }
+        }
+    }
+
+    private void processCancelled() {
+        while (true) {
+            Timeout timeout = cancelledTimeouts.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+            EventClock clock = timeout.clock;
+            if (clock != null) {
+                synchronized (clock) {
+                    clock.cancelled(timeout);
+                }
+            }
+        }
+    }
+
+    private void deliver(List<Timeout> expired) {
+        if (expired.isEmpty()) {
+            return;
+        }
+        expiredTimeouts.addAndGet(expired.size());
+        for (int from = 0; from < expired.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, expired.size());
+            try {
+                expiryHandler.onExpired(new ArrayList<>(expired.subList(from, to)));
+            } catch (Exception e) {
+                logger.error("❌ Error handling {} expired correlation timeouts: {}", to - from, e.getMessage(), e);
+            }
+        }
+        expired.clear();
+    }
+
+    /**
+     * Handle for a scheduled correlation deadline
+     */
+    public static final class Timeout {
+
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final CorrelationTimeoutScheduler scheduler;
+        private final CorrelationKey key;
+        private final Kind kind;
+        private final String apiName;
+        // Nanos since start for wheel timeouts, epoch millis for event-time ones
+        private final long deadline;
+
+        private volatile int state = ST_INIT;
+
+        // Event clock holding the deadline, null for wheel timeouts; guarded by the clock
+        private volatile EventClock clock;
+
+        // Owned by the worker thread
+        private long remainingRounds;
+        private Timeout next;
+        private Timeout prev;
+        private Bucket bucket;
+
+        private Timeout(CorrelationTimeoutScheduler scheduler, CorrelationKey key, Kind kind, String apiName, long deadline) {
+            this.scheduler = scheduler;
+            this.key = key;
+            this.kind = kind;
+            this.apiName = apiName;
+            this.deadline = deadline;
+        }
+
+        public CorrelationKey getKey() {
+            return key;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * API the deadline was scheduled for, null if untagged
+         */
+        public String getApiName() {
+            return apiName;
+        }
+
+        /**
+         * Cancel the deadline. Returns false if it already expired (or was already cancelled).
+         */
+        public boolean cancel() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            scheduler.pendingTimeouts.decrementAndGet();
+            scheduler.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == ST_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == ST_EXPIRED;
+        }
+
+        private boolean expire() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+                return false;
+            }
+            scheduler.pendingTimeouts.decrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * Watermark and event-time deadlines of one partition, guarded by its own monitor
+     */
+    private static final class EventClock {
+
+        private final PriorityQueue<Timeout> deadlines = new PriorityQueue<>(Comparator.comparingLong(t -> t.deadline));
+        private long watermark = Long.MIN_VALUE;
+        private long lastAdvanceNanos = System.nanoTime();
+        // Last advance or schedule, unlike lastAdvanceNanos not moved by idle advancing
+        private long lastEventNanos = lastAdvanceNanos;
+        // Cancelled deadlines still in the queue (approximately, the head may drop some first)
+        private int cancelledDeadlines;
+        // Removed from the clocks map; a caller that still holds it looks it up again
+        private boolean dropped;
+
+        /**
+         * Count a cancelled deadline of this clock; sweep them out once they outnumber the live ones
+         */
+        void cancelled(Timeout timeout) {
+            if (timeout.clock != this) {
+                return; // already left the queue
+            }
+            timeout.clock = null;
+            if (++cancelledDeadlines >= MIN_COMPACT_CANCELLED && cancelledDeadlines * 2 > deadlines.size()) {
+                deadlines.removeIf(t -> {
+                    if (t.state == Timeout.ST_INIT) {
+                        return false;
+                    }
+                    t.clock = null; // not counted again when its cancellation is processed
+                    return true;
+                });
+                cancelledDeadlines = 0;
+            }
+        }
+
+        /**
+         * Move deadlines the watermark has passed to due; cancelled ones at the head are dropped on the way
+         */
+        void collectDue(Queue<Timeout> due) {
+            Timeout head;
+            while ((head = deadlines.peek()) != null && (head.deadline <= watermark || head.state != Timeout.ST_INIT)) {
+                deadlines.poll();
+                if (head.clock == null && cancelledDeadlines > 0) {
+                    cancelledDeadlines--; // counted cancellation leaving through the head
+                }
+                head.clock = null;
+                if (head.state == Timeout.ST_INIT) {
+                    due.add(head);
+                }
+            }
+        }
+    }
+
+    /**
+     * Doubly linked list of timeouts hashed to the same slot, only touched by the worker thread
+     */
+    private static final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void expire(long now, List<Timeout> expired) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.state == Timeout.ST_CANCELLED) {
+                    remove(timeout);
+                } else if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    if (timeout.deadline <= now && timeout.expire()) {
+                        expired.add(timeout);
+                    }
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
@@ -11,6 +11,8 @@ import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
 
 @Service
 public class DataSourceConnectionService {
@@ -35,6 +37,14 @@ public class DataSourceConnectionService {
         }
     }
 
+    /**
+     * Load a single Kafka connection, empty if it was deleted or is no longer of type kafka
+     */
+    public Optional<DataSourceConnection> findKafkaConnection(UUID connectionId) {
+        return dataSourceConnectionRepository.findById(connectionId)
+            .filter(connection -> "kafka".equals(connection.getConnectionType()));
+    }
+
     /**
      * Parse JSON details column to KafkaConnectionDetails object
      */
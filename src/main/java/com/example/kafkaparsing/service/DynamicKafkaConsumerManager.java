@@ -2,35 +2,103 @@ package com.example.kafkaparsing.service;
 
 import com.example.kafkaparsing.entity.DataSourceConnection;
 import com.example.kafkaparsing.model.KafkaConnectionDetails;
+import com.example.kafkaparsing.model.MessageEnvelope;
+import com.example.kafkaparsing.model.RecordAck;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.DependsOn;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.AcknowledgingMessageListener;
+import org.springframework.kafka.listener.BatchConsumerAwareMessageListener;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
 import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
-import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Runs the consumers of the Kafka connections in the connections table.
+ *
+ * Connections with the same brokers, credentials, consumer group and listener settings share one consumer
+ * client (see SharedConsumer) subscribed to all their topics; records are routed to their connection by topic.
+ */
 @Service
 @DependsOn("kafkaMessageForwarder")
 public class DynamicKafkaConsumerManager {
 
     private static final Logger logger = LoggerFactory.getLogger(DynamicKafkaConsumerManager.class);
+    // How often consumers paused for back-pressure are checked for resuming
+    private static final long RESUME_CHECK_MS = 100;
+
+    private static final List<String> FALLBACK_API_NAME_PATHS = Arrays.asList("api_name", "apiName", "API_NAME");
+    private static final Set<String> SPLICED_FIELD_NAMES = new HashSet<>(Arrays.asList("connectionName", "extractedApiName"));
+
+    // Fields spliced into the original message bytes
+    private static final byte[] CONNECTION_NAME_FIELD = "\"connectionName\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NEXT_CONNECTION_NAME_FIELD = ",\"connectionName\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EXTRACTED_API_NAME_FIELD = ",\"extractedApiName\":".getBytes(StandardCharsets.UTF_8);
+
+    // Parallel mode: records queued per lane before the consumer thread waits, and how long a revoked
+    // partition may take to finish its in-flight records before the container commits
+    @Value("${audit.parallel.lane-capacity:1000}")
+    private int laneCapacity;
+
+    @Value("${audit.parallel.revoke-timeout-ms:10000}")
+    private long revokeTimeoutMs;
+
+    // auto: Kafka auto-commit; indexed: commit a record's offset only once its documents are indexed or spooled
+    @Value("${audit.consumer.ack-mode:auto}")
+    private String ackMode;
+
+    // Minimum time between offset commits of one partition when offsets are committed manually
+    @Value("${audit.consumer.commit-interval-ms:1000}")
+    private long commitIntervalMs;
+
+    // Records of one client waiting for a manual commit before its consumer pauses (resumes below half)
+    @Value("${audit.consumer.max-uncommitted:100000}")
+    private int maxUncommitted;
 
     @Autowired
     private DataSourceConnectionService dataSourceConnectionService;
@@ -41,45 +109,179 @@ public class DynamicKafkaConsumerManager {
     @Autowired
     private DynamicMessageProcessor dynamicMessageProcessor;
 
-    // Store active containers by connection ID
-    private final Map<UUID, List<ConcurrentMessageListenerContainer<String, String>>> activeContainers = new ConcurrentHashMap<>();
-    
+    @Autowired
+    private ExtractionPlanCache extractionPlanCache;
+
+    @Autowired
+    private CorrelationRepartitioner correlationRepartitioner;
+
+    // Shared consumer clients by client key, and the client each connection is attached to
+    private final Map<String, SharedConsumer> clients = new ConcurrentHashMap<>();
+    private final Map<UUID, SharedConsumer> connectionClients = new ConcurrentHashMap<>();
+
+    // Connection row each consumer was created from, to detect configuration changes
+    private final Map<UUID, DataSourceConnection> appliedConnections = new ConcurrentHashMap<>();
+
+    // Listener load and concurrency bounds by client ID, read by ListenerAutoscaler
+    private final Map<UUID, ListenerLoad> listenerLoads = new ConcurrentHashMap<>();
+
+    // Correlation key for lane selection, read from the raw bytes without building a tree
+    private final StreamingFieldExtractor correlationKeyExtractor = StreamingFieldExtractor.compile(
+        Collections.singletonList(ExtractionPlan.compilePath(ExtractionPlan.CORRELATION_ID_PATH)));
+
     // ObjectMapper for JSON manipulation
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    // Sends acknowledgements held back by the commit interval and resumes consumers paused for back-pressure
+    private ScheduledExecutorService commitFlusher;
+
     @PostConstruct
     public void initializeConsumers() {
-        logger.info("Initializing dynamic Kafka consumers from database...");
-        
+        logger.info("Initializing dynamic Kafka consumers from database (ack mode: {})...", ackAfterIndexing() ? "indexed" : "auto");
+
+        long flushIntervalMs = flushIntervalMs();
+        commitFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "offset-commit-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        commitFlusher.scheduleWithFixedDelay(this::flushCommits, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        commitFlusher.scheduleWithFixedDelay(this::resumePaused, RESUME_CHECK_MS, RESUME_CHECK_MS, TimeUnit.MILLISECONDS);
+
         try {
             List<DataSourceConnection> connections = dataSourceConnectionService.loadKafkaConnections();
-            
+
             if (connections.isEmpty()) {
                 logger.warn("No Kafka connections found in database");
-                return;
-            }
+            } else {
+                applyChanges(connections, Collections.emptySet());
 
-            for (DataSourceConnection connection : connections) {
-                try {
-                    createConsumersForConnection(connection);
-                } catch (Exception e) {
-                    logger.error("Failed to create consumers for connection {}: {}", 
-                        connection.getConnectionName(), e.getMessage(), e);
-                }
+                logger.info("Dynamic Kafka consumer initialization complete. Active connections: {}, consumer clients: {}",
+                    connectionClients.size(), clients.size());
             }
 
-            logger.info("Dynamic Kafka consumer initialization complete. Active connections: {}", activeContainers.size());
-            
         } catch (Exception e) {
             logger.error("Error during Kafka consumer initialization", e);
         }
+
+        // Started once the connections are attached, so repartitioned records find their connection
+        correlationRepartitioner.start(this::findHandler);
+    }
+
+    /**
+     * Bring running consumers in line with the connections table: start new connections,
+     * restart changed ones and stop removed ones. Unchanged connections keep consuming unless
+     * they share a client with a connection that changed.
+     */
+    public synchronized void reconcileConnections() {
+        List<DataSourceConnection> connections = dataSourceConnectionService.loadKafkaConnections();
+
+        Set<UUID> current = new HashSet<>();
+        List<DataSourceConnection> toStart = new ArrayList<>();
+        Set<UUID> toStop = new HashSet<>();
+        for (DataSourceConnection connection : connections) {
+            current.add(connection.getUniqueId());
+            collectChange(connection, toStart, toStop);
+        }
+
+        for (UUID connectionId : appliedConnections.keySet()) {
+            if (!current.contains(connectionId)) {
+                toStop.add(connectionId);
+            }
+        }
+        applyChanges(toStart, toStop);
+    }
+
+    /**
+     * Re-read one connection and start, restart or stop only its consumer
+     */
+    public synchronized void reloadConnection(UUID connectionId) {
+        Optional<DataSourceConnection> connection = dataSourceConnectionService.findKafkaConnection(connectionId);
+        List<DataSourceConnection> toStart = new ArrayList<>();
+        Set<UUID> toStop = new HashSet<>();
+        if (connection.isPresent()) {
+            collectChange(connection.get(), toStart, toStop);
+        } else if (appliedConnections.containsKey(connectionId)) {
+            toStop.add(connectionId);
+        }
+        applyChanges(toStart, toStop);
+    }
+
+    /**
+     * Stop consuming for one connection
+     */
+    public synchronized void stopConnection(UUID connectionId) {
+        applyChanges(Collections.emptyList(), Collections.singleton(connectionId));
+    }
+
+    private void collectChange(DataSourceConnection connection, List<DataSourceConnection> toStart, Set<UUID> toStop) {
+        DataSourceConnection applied = appliedConnections.get(connection.getUniqueId());
+        if (applied == null) {
+            logger.info("🔄 New Kafka connection '{}' detected", connection.getConnectionName());
+            toStart.add(connection);
+        } else if (isChanged(applied, connection)) {
+            logger.info("🔄 Kafka connection '{}' changed, restarting its consumer", connection.getConnectionName());
+            toStop.add(connection.getUniqueId());
+            toStart.add(connection);
+        }
+    }
+
+    private static boolean isChanged(DataSourceConnection applied, DataSourceConnection connection) {
+        return !Objects.equals(applied.getDetails(), connection.getDetails())
+            || !Objects.equals(applied.getConnectionName(), connection.getConnectionName())
+            || !Objects.equals(applied.getUpdatedAt(), connection.getUpdatedAt());
+    }
+
+    /**
+     * Detach stopped connections and attach started ones, restarting every client whose topics changed
+     * once. A client's containers are stopped before its connections change, so no record reaches a
+     * connection that is going away.
+     */
+    private synchronized void applyChanges(Collection<DataSourceConnection> toStart, Collection<UUID> toStop) {
+        Set<SharedConsumer> affected = new LinkedHashSet<>();
+
+        for (UUID connectionId : toStop) {
+            DataSourceConnection applied = appliedConnections.remove(connectionId);
+            SharedConsumer client = connectionClients.remove(connectionId);
+            if (client != null) {
+                stopContainer(client);
+                client.removeHandler(connectionId);
+                affected.add(client);
+                logger.info("Detached connection '{}' from its consumer",
+                    applied != null ? applied.getConnectionName() : connectionId);
+            }
+        }
+
+        for (DataSourceConnection connection : toStart) {
+            // Recorded even when attaching fails, so an invalid row is retried only once it changes
+            appliedConnections.put(connection.getUniqueId(), connection);
+            try {
+                SharedConsumer client = attachConnection(connection);
+                if (client != null) {
+                    stopContainer(client);
+                    affected.add(client);
+                }
+            } catch (Exception e) {
+                logger.error("Failed to create consumers for connection {}: {}",
+                    connection.getConnectionName(), e.getMessage(), e);
+            }
+        }
+
+        for (SharedConsumer client : affected) {
+            if (client.hasHandlers()) {
+                startClient(client);
+            } else {
+                closeClient(client);
+            }
+        }
     }
 
     /**
-     * Create consumers for a single connection
+     * Add a connection to the client for its brokers, credentials, group and listener settings,
+     * creating the client if there is none yet
      */
-    private void createConsumersForConnection(DataSourceConnection connection) {
-        logger.info("Creating consumers for connection: {} (ID: {})", 
+    private SharedConsumer attachConnection(DataSourceConnection connection) {
+        logger.info("Creating consumer for connection: {} (ID: {})",
             connection.getConnectionName(), connection.getUniqueId());
 
         // Parse connection details JSON
@@ -88,81 +290,615 @@ public class DynamicKafkaConsumerManager {
         // Validate
         if (!dataSourceConnectionService.validateConnectionDetails(details)) {
             logger.error("Invalid connection details for {}", connection.getConnectionName());
+            return null;
+        }
+
+        String clientKey = clientKey(details);
+        SharedConsumer client = clients.get(clientKey);
+        if (client != null && client.hasTopic(details.getTopic())) {
+            // Records are routed by topic, so a second connection on the same topic needs its own client
+            clientKey = clientKey + "#" + connection.getUniqueId();
+            client = clients.get(clientKey);
+        }
+        if (client == null) {
+            client = new SharedConsumer(clientKey, details, createConsumerFactory(details));
+            clients.put(clientKey, client);
+        }
+
+        client.addHandler(new SharedConsumer.ConnectionHandler(connection.getUniqueId(), connection.getConnectionName(),
+            details, createApiNameExtractor(details)));
+        connectionClients.put(connection.getUniqueId(), client);
+        return client;
+    }
+
+    /**
+     * Everything that has to be equal for two connections to share a consumer client. Only kept in memory
+     * and never logged, since it includes the credentials.
+     */
+    private static String clientKey(KafkaConnectionDetails details) {
+        List<String> brokers = new ArrayList<>();
+        for (String broker : details.getKafkaBrokers()) {
+            brokers.add(broker.trim());
+        }
+        Collections.sort(brokers);
+        return String.join("|", String.join(",", brokers), String.valueOf(details.getSecurityProtocol()),
+            String.valueOf(details.getUserName()), String.valueOf(details.getPassword()), details.getConsumerGroupId(),
+            String.valueOf(details.isBatchListener()), String.valueOf(details.getMaxPollRecords()),
+            String.valueOf(details.getParallelism()), String.valueOf(details.getConcurrency()),
+            String.valueOf(details.isAutoscale()), String.valueOf(details.getMaxConcurrency()));
+    }
+
+    /**
+     * Create and start the container of a client for the topics of all its connections
+     */
+    private void startClient(SharedConsumer client) {
+        KafkaConnectionDetails settings = client.getSettings();
+        String name = client.getName();
+        String[] topics = client.getTopics();
+        try {
+            // Create container factory
+            ConcurrentKafkaListenerContainerFactory<String, byte[]> containerFactory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+            containerFactory.setConsumerFactory(client.getConsumerFactory());
+
+            ConcurrentMessageListenerContainer<String, byte[]> container = containerFactory.createContainer(topics);
+
+            ListenerLoad load = createListenerLoad(name, settings, client.getConsumerFactory(), topics);
+            container.setConcurrency(load.getConcurrency());
+            listenerLoads.put(client.getId(), load);
+
+            // Offsets committed by us rather than by Kafka: only up to the lowest record not yet done
+            if (usesManualCommits(settings)) {
+                if (client.getTracker() == null) {
+                    client.setTracker(new OffsetTracker(commitIntervalMs, maxUncommitted));
+                }
+                ContainerProperties containerProperties = container.getContainerProperties();
+                containerProperties.setAckMode(ContainerProperties.AckMode.MANUAL);
+                containerProperties.setConsumerRebalanceListener(createRevokeListener(name, client));
+                if (settings.isBatchListener() && !settings.isParallel()) {
+                    // Batch offsets are committed on the consumer thread; when no next batch comes, from its idle event
+                    containerProperties.setIdleEventInterval(flushIntervalMs());
+                    container.setApplicationEventPublisher(event -> {
+                        if (event instanceof ListenerContainerIdleEvent) {
+                            commitPending(client, ((ListenerContainerIdleEvent) event).getConsumer());
+                        }
+                    });
+                }
+            }
+
+            // Set message listener: records fanned out to worker lanes, whole poll batches, or one record at a time
+            if (settings.isParallel()) {
+                if (settings.isBatchListener()) {
+                    logger.warn("Connections '{}' set both parallelism and batchListener, using parallel mode", name);
+                }
+                if (client.getLanes() == null) {
+                    client.setLanes(new KeyOrderedLanes("consumer-" + client.getId().toString().substring(0, 8), settings.getParallelism(), laneCapacity));
+                }
+                container.setupMessageListener(createParallelListener(client, load));
+            } else {
+                container.setupMessageListener(settings.isBatchListener()
+                    ? createBatchListener(client, load)
+                    : createRecordListener(client, load));
+            }
+
+            // Start container
+            container.start();
+            client.setContainer(container);
+
+            logger.info("Started consumer for topics {} (connections: {}) with concurrency {}", Arrays.toString(topics),
+                name, load.getConcurrency());
+
+        } catch (Exception e) {
+            logger.error("Failed to create consumer for topics {} (connections: {}): {}",
+                Arrays.toString(topics), name, e.getMessage(), e);
+        }
+    }
+
+    private void stopContainer(SharedConsumer client) {
+        ConcurrentMessageListenerContainer<String, byte[]> container = client.getContainer();
+        if (container == null) {
             return;
         }
+        try {
+            container.stop();
+        } catch (Exception e) {
+            logger.error("Error stopping consumer container: {}", e.getMessage(), e);
+        }
+        client.setContainer(null);
+    }
+
+    /**
+     * Forget a client whose last connection was detached
+     */
+    private void closeClient(SharedConsumer client) {
+        stopContainer(client);
+        clients.remove(client.getClientKey());
+        listenerLoads.remove(client.getId());
+        KeyOrderedLanes lanes = client.getLanes();
+        if (lanes != null) {
+            lanes.shutdown(revokeTimeoutMs);
+        }
+        logger.info("Closed consumer client {}", client.getId());
+    }
 
-        // Create consumer factory
-        ConsumerFactory<String, String> consumerFactory = createConsumerFactory(details);
+    /**
+     * How often held-back acknowledgements are flushed and idle batch consumers commit
+     */
+    private long flushIntervalMs() {
+        return commitIntervalMs > 0 ? commitIntervalMs : 1000;
+    }
 
-        // Create container factory
-        ConcurrentKafkaListenerContainerFactory<String, String> containerFactory = 
-            new ConcurrentKafkaListenerContainerFactory<>();
-        containerFactory.setConsumerFactory(consumerFactory);
+    private boolean ackAfterIndexing() {
+        return "indexed".equalsIgnoreCase(ackMode);
+    }
 
-        // Create a container for the single topic
-        List<ConcurrentMessageListenerContainer<String, String>> containers = new java.util.ArrayList<>();
+    private boolean usesManualCommits(KafkaConnectionDetails settings) {
+        return settings.isParallel() || ackAfterIndexing();
+    }
 
-        String topic = details.getTopic();
-        if (topic != null && !topic.isEmpty()) {
-            try {
-                ConcurrentMessageListenerContainer<String, String> container = 
-                    containerFactory.createContainer(topic);
+    /**
+     * Start tracking a record; null when offsets are auto-committed. The caller holds the first reference
+     * and releases it once done with the record.
+     */
+    private RecordAck track(SharedConsumer client, ConsumerRecord<String, byte[]> record, Acknowledgment acknowledgment) {
+        OffsetTracker tracker = client.getTracker();
+        if (tracker == null) {
+            return null;
+        }
+        OffsetTracker.Entry entry = tracker.track(record, acknowledgment);
+        if (tracker.isFull()) {
+            pauseForCommits(client);
+        }
+        return new RecordAck(() -> tracker.complete(entry));
+    }
 
-                // Set message listener
-                container.setupMessageListener((MessageListener<String, String>) record -> {
-                    logger.info("Received message from topic '{}' (connection: {}): key={}, partition={}, offset={}", 
-                        record.topic(), connection.getConnectionName(), record.key(), record.partition(), record.offset());
+    /**
+     * Stop polling while too many records wait for a commit, e.g. behind a document that could not be
+     * indexed; resumePaused resumes the consumer once they drain
+     */
+    private void pauseForCommits(SharedConsumer client) {
+        ConcurrentMessageListenerContainer<String, byte[]> container = client.getContainer();
+        if (container != null && !container.isPauseRequested()) {
+            logger.warn("⚠️ {} records of '{}' waiting for an offset commit, pausing its consumer", maxUncommitted, client.getName());
+            container.pause();
+        }
+    }
 
-                    // Process message dynamically and forward to raw-data-topic_kafka
+    /**
+     * Forward the enhanced message; when the forwarder's in-flight window is full, pause the consumer
+     * instead of blocking its thread until resumePaused sees the waiting messages sent
+     */
+    private void forward(SharedConsumer client, ConsumerRecord<String, byte[]> record, MessageEnvelope envelope) {
+        kafkaMessageForwarder.forwardMessage(record.key(), envelope.getPayloadBytes(), null);
+        if (kafkaMessageForwarder.isBackPressured()) {
+            ConcurrentMessageListenerContainer<String, byte[]> container = client.getContainer();
+            if (container != null && !container.isPauseRequested()) {
+                logger.warn("⚠️ Forwarder in-flight window full, pausing the consumer of '{}'", client.getName());
+                container.pause();
+            }
+        }
+    }
+
+    private static void release(RecordAck ack) {
+        if (ack != null) {
+            ack.release();
+        }
+    }
+
+    private void flushCommits() {
+        correlationRepartitioner.flushCommits();
+        for (SharedConsumer client : clients.values()) {
+            OffsetTracker tracker = client.getTracker();
+            if (tracker != null) {
+                tracker.flush();
+            }
+        }
+    }
+
+    /**
+     * Resume consumers paused for back-pressure once both offset commits and forwarding have caught up
+     */
+    private void resumePaused() {
+        if (kafkaMessageForwarder.isBackPressured()) {
+            return;
+        }
+        for (SharedConsumer client : clients.values()) {
+            OffsetTracker tracker = client.getTracker();
+            ConcurrentMessageListenerContainer<String, byte[]> container = client.getContainer();
+            if (container != null && container.isPauseRequested() && (tracker == null || tracker.hasRoom())) {
+                logger.info("▶️ Offset commits and forwarding of '{}' caught up, resuming its consumer", client.getName());
+                container.resume();
+            }
+        }
+    }
+
+    /**
+     * Listener handling one record per call
+     */
+    private AcknowledgingMessageListener<String, byte[]> createRecordListener(SharedConsumer client, ListenerLoad load) {
+        return (record, acknowledgment) -> {
+            long start = System.nanoTime();
+            RecordAck ack = track(client, record, acknowledgment);
+            handleRecord(record, client, ack);
+            release(ack);
+            load.record(1, System.nanoTime() - start);
+        };
+    }
+
+    /**
+     * Listener handing each record to the worker lane of its correlation key. Records sharing a key keep
+     * their order, while one partition is processed by all lanes; offsets are acknowledged only up to the
+     * lowest record not yet processed (see OffsetTracker).
+     */
+    private AcknowledgingMessageListener<String, byte[]> createParallelListener(SharedConsumer client, ListenerLoad load) {
+        KeyOrderedLanes lanes = client.getLanes();
+        return (record, acknowledgment) -> {
+            String key = correlationKey(record);
+            RecordAck ack = track(client, record, acknowledgment);
+            try {
+                lanes.submit(key, record.offset(), () -> {
+                    long start = System.nanoTime();
                     try {
-                        // First, enhance the message with connectionName and extractedApiName
-                        String enhancedMessage = addConnectionNameToMessage(record.value(), connection.getConnectionName(), details);
-                        
-                        // Forward the enhanced message to raw-data-topic_kafka for RawDataConsumer
-                        kafkaMessageForwarder.forwardMessage(record.key(), enhancedMessage, null);
-                        
-                        // Process the ENHANCED message with dynamic field extraction
-                        dynamicMessageProcessor.processMessage(enhancedMessage, connection.getConnectionName(), details);
-                        
-                    } catch (Exception e) {
-                        logger.error("Error processing message from topic {}: {}", record.topic(), e.getMessage(), e);
+                        handleRecord(record, client, ack);
+                    } finally {
+                        release(ack);
+                        load.record(1, System.nanoTime() - start);
                     }
                 });
+            } catch (InterruptedException e) {
+                // Container stopping; the record stays unacknowledged and is consumed again
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
 
-                // Start container
-                container.start();
-                containers.add(container);
+    /**
+     * Before the container commits on revocation, wait for the revoked partitions' in-flight records.
+     * Batch listeners commit their own offsets, so theirs are committed here as well.
+     */
+    private ConsumerAwareRebalanceListener createRevokeListener(String name, SharedConsumer client) {
+        OffsetTracker tracker = client.getTracker();
+        return new ConsumerAwareRebalanceListener() {
+            @Override
+            public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+                try {
+                    if (!tracker.revoke(partitions, revokeTimeoutMs)) {
+                        logger.warn("⚠️ Records of revoked partitions {} (connections: {}) still in flight after {} ms, they will be consumed again",
+                            partitions, name, revokeTimeoutMs);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                Map<TopicPartition, OffsetAndMetadata> commits = client.takeCommits(partitions);
+                if (!commits.isEmpty()) {
+                    try {
+                        consumer.commitSync(commits);
+                    } catch (Exception e) {
+                        logger.warn("⚠️ Failed to commit offsets of revoked partitions {} (connections: {}): {}", partitions, name, e.getMessage());
+                    }
+                }
+            }
+        };
+    }
 
-                logger.info("Started consumer for topic '{}' on connection '{}'", topic, connection.getConnectionName());
+    /**
+     * Commit what batch processing has finished since the last call; runs on the consumer thread. Only the
+     * partitions this consumer currently owns: sibling consumers of the client commit their own, and an
+     * offset offered late for a partition that moved is not committed over its new owner's progress.
+     */
+    private void commitPending(SharedConsumer client, Consumer<?, ?> consumer) {
+        Map<TopicPartition, OffsetAndMetadata> commits = client.takeCommits(consumer.assignment());
+        if (!commits.isEmpty()) {
+            consumer.commitAsync(commits, (offsets, exception) -> {
+                if (exception != null) {
+                    logger.warn("⚠️ Offset commit failed (connections: {}): {}", client.getName(), exception.getMessage());
+                }
+            });
+        }
+    }
 
+    /**
+     * Correlation ID of a record, falling back to the record key when the message has none or is not JSON
+     */
+    private String correlationKey(ConsumerRecord<String, byte[]> record) {
+        if (record.value() != null) {
+            try {
+                String correlationId = correlationKeyExtractor.extract(record.value())[0];
+                if (correlationId != null) {
+                    return correlationId;
+                }
             } catch (Exception e) {
-                logger.error("Failed to create consumer for topic '{}' on connection '{}': {}", 
-                    topic, connection.getConnectionName(), e.getMessage(), e);
+                logger.debug("Could not read correlation key at offset {}: {}", record.offset(), e.getMessage());
+            }
+        }
+        return record.key();
+    }
+
+    /**
+     * Enhance, forward and process one record for the connection of its topic. ack (null unless offsets are
+     * committed manually) is handed to the documents only in at-least-once mode; otherwise the record is done
+     * when this returns.
+     */
+    private void handleRecord(ConsumerRecord<String, byte[]> record, SharedConsumer client, RecordAck ack) {
+        SharedConsumer.ConnectionHandler handler = client.getHandler(record.topic());
+        if (handler == null) {
+            logger.warn("⚠️ No connection for topic '{}', skipping offset {}", record.topic(), record.offset());
+            return;
+        }
+        String connectionName = handler.connectionName;
+        logger.info("Received message from topic '{}' (connection: {}): key={}, partition={}, offset={}",
+            record.topic(), connectionName, record.key(), record.partition(), record.offset());
+
+        // Process message dynamically and forward to raw-data-topic_kafka
+        try {
+            // Parse once and add connectionName and extractedApiName
+            MessageEnvelope envelope = createEnvelope(record, connectionName, handler.details, handler.apiNameExtractor);
+            if (ackAfterIndexing()) {
+                envelope.setAck(ack);
+            }
+
+            // Forward the enhanced message to raw-data-topic_kafka for RawDataConsumer
+            forward(client, record, envelope);
+
+            if (correlationRepartitioner.isEnabled()) {
+                // Processed by whichever instance owns the correlation ID's partition of the repartition topic
+                correlationRepartitioner.publish(handler.connectionId, correlationKey(record), envelope);
+            } else {
+                // Process the ENHANCED message with dynamic field extraction
+                dynamicMessageProcessor.processMessage(envelope);
             }
+
+        } catch (Exception e) {
+            logger.error("Error processing message from topic {}: {}", record.topic(), e.getMessage(), e);
         }
+    }
+
+    /**
+     * Listener handling a whole poll batch per call: every record is enhanced and forwarded, then the
+     * batch is processed together (see DynamicMessageProcessor.processBatch).
+     *
+     * In at-least-once mode there is no per-record acknowledgement for batches, so finished offsets are
+     * collected on the client and committed from the consumer thread at the start of the next batch, or
+     * from the container's idle event when no batch arrives for the flush interval.
+     */
+    private BatchConsumerAwareMessageListener<String, byte[]> createBatchListener(SharedConsumer client, ListenerLoad load) {
+        return (records, consumer) -> {
+            long start = System.nanoTime();
+            logger.info("Received batch of {} messages (connections: {})", records.size(), load.getConnectionName());
+            commitPending(client, consumer);
 
-        // Store containers
-        activeContainers.put(connection.getUniqueId(), containers);
+            List<MessageEnvelope> envelopes = new ArrayList<>(records.size());
+            List<RecordAck> acks = new ArrayList<>(records.size());
+            for (ConsumerRecord<String, byte[]> record : records) {
+                SharedConsumer.ConnectionHandler handler = client.getHandler(record.topic());
+                if (handler == null) {
+                    logger.warn("⚠️ No connection for topic '{}', skipping offset {}", record.topic(), record.offset());
+                    continue;
+                }
+                TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+                RecordAck ack = track(client, record, () -> client.offerCommit(partition, record.offset() + 1));
+                if (ack != null) {
+                    acks.add(ack);
+                }
+                try {
+                    MessageEnvelope envelope = createEnvelope(record, handler.connectionName, handler.details, handler.apiNameExtractor);
+                    envelope.setAck(ack);
+                    forward(client, record, envelope);
+                    if (correlationRepartitioner.isEnabled()) {
+                        correlationRepartitioner.publish(handler.connectionId, correlationKey(record), envelope);
+                    } else {
+                        envelopes.add(envelope);
+                    }
+                } catch (Exception e) {
+                    logger.error("Error processing message from topic {} (partition {}, offset {}): {}",
+                        record.topic(), record.partition(), record.offset(), e.getMessage(), e);
+                }
+            }
 
-        logger.info("Created {} consumers for connection '{}'", containers.size(), connection.getConnectionName());
+            try {
+                if (!envelopes.isEmpty()) {
+                    dynamicMessageProcessor.processBatch(envelopes);
+                }
+            } catch (Exception e) {
+                logger.error("Error processing batch of {} messages (connections: {}): {}", envelopes.size(),
+                    load.getConnectionName(), e.getMessage(), e);
+            }
+            RecordAck.releaseAll(acks);
+            load.record(records.size(), System.nanoTime() - start);
+        };
+    }
+
+    /**
+     * Work out the concurrency bounds of a client. The partition count is only looked up when more
+     * than one consumer thread is asked for, since extra threads beyond it would sit idle. With the
+     * default range assignor that is the largest partition count of the client's topics.
+     */
+    private ListenerLoad createListenerLoad(String name, KafkaConnectionDetails details,
+                                            ConsumerFactory<String, byte[]> consumerFactory, String[] topics) {
+        int concurrency = Math.max(1, details.getConcurrency() != null ? details.getConcurrency() : 1);
+        int maxConcurrency = details.isAutoscale() && details.getMaxConcurrency() != null
+            ? Math.max(concurrency, details.getMaxConcurrency()) : concurrency;
+
+        int partitions = 0;
+        if (maxConcurrency > 1 || details.isAutoscale()) {
+            partitions = partitionCount(consumerFactory, topics);
+        }
+        if (details.isAutoscale() && details.getMaxConcurrency() == null && partitions > 0) {
+            maxConcurrency = partitions;
+        }
+        if (partitions > 0) {
+            maxConcurrency = Math.min(maxConcurrency, partitions);
+            concurrency = Math.min(concurrency, partitions);
+        }
+
+        if (details.isAutoscale()) {
+            logger.info("Consumer of '{}' autoscales between {} and {} threads ({} partitions)", name,
+                concurrency, maxConcurrency, partitions > 0 ? partitions : "unknown");
+        }
+        return new ListenerLoad(name, concurrency, maxConcurrency, partitions, concurrency);
+    }
+
+    private int partitionCount(ConsumerFactory<String, byte[]> consumerFactory, String[] topics) {
+        try (Consumer<String, byte[]> consumer = consumerFactory.createConsumer()) {
+            int max = 0;
+            for (String topic : topics) {
+                List<PartitionInfo> partitions = consumer.partitionsFor(topic);
+                max = Math.max(max, partitions != null ? partitions.size() : 0);
+            }
+            return max;
+        } catch (Exception e) {
+            logger.warn("Could not read partition count of topics {}: {}", Arrays.toString(topics), e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Listener load of every running consumer client
+     */
+    public Map<UUID, ListenerLoad> getListenerLoads() {
+        return Collections.unmodifiableMap(listenerLoads);
+    }
+
+    /**
+     * Queued and in-flight records of every client in parallel mode
+     */
+    public Map<String, Object> getParallelStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        for (SharedConsumer client : clients.values()) {
+            KeyOrderedLanes lanes = client.getLanes();
+            if (lanes == null) {
+                continue;
+            }
+            Map<String, Object> clientStats = new HashMap<>();
+            clientStats.put("lanes", lanes.getLaneCount());
+            clientStats.put("queued", lanes.getQueued());
+            clientStats.put("inFlight", client.getTracker().getInFlight());
+            stats.put(client.getName(), clientStats);
+        }
+        return stats;
+    }
+
+    /**
+     * Connections and topics of every consumer client
+     */
+    public List<Map<String, Object>> getClientStatistics() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (SharedConsumer client : clients.values()) {
+            Map<String, Object> clientStats = new HashMap<>();
+            clientStats.put("connections", client.getName());
+            clientStats.put("topics", client.getTopics());
+            clientStats.put("running", client.getContainer() != null && client.getContainer().isRunning());
+            stats.add(clientStats);
+        }
+        return stats;
+    }
+
+    /**
+     * Consumer lag of a client: the sum over its consumers of records-lag-max, -1 if not known yet
+     */
+    public long getConsumerLag(UUID clientId) {
+        SharedConsumer client = findClient(clientId);
+        ConcurrentMessageListenerContainer<String, byte[]> container = client != null ? client.getContainer() : null;
+        if (container == null) {
+            return -1;
+        }
+        long lag = -1;
+        for (Map<MetricName, ? extends Metric> clientMetrics : container.metrics().values()) {
+            for (Map.Entry<MetricName, ? extends Metric> metric : clientMetrics.entrySet()) {
+                MetricName name = metric.getKey();
+                // The client-wide metric, not the per-partition ones
+                if ("records-lag-max".equals(name.name()) && !name.tags().containsKey("topic")) {
+                    Object value = metric.getValue().metricValue();
+                    if (value instanceof Double && !((Double) value).isNaN()) {
+                        lag = Math.max(lag, 0) + ((Double) value).longValue();
+                    }
+                }
+            }
+        }
+        return lag;
+    }
+
+    /**
+     * Restart the container of a client with a different concurrency. The container only applies a new
+     * concurrency on start, so this causes a consumer group rebalance.
+     */
+    public synchronized boolean resizeClient(UUID clientId, int concurrency) {
+        SharedConsumer client = findClient(clientId);
+        ListenerLoad load = listenerLoads.get(clientId);
+        ConcurrentMessageListenerContainer<String, byte[]> container = client != null ? client.getContainer() : null;
+        if (container == null || load == null) {
+            return false;
+        }
+        container.stop();
+        container.setConcurrency(concurrency);
+        container.start();
+        load.resized(concurrency);
+        return true;
+    }
+
+    /**
+     * Handler of an attached connection, null if it is not attached
+     */
+    private SharedConsumer.ConnectionHandler findHandler(UUID connectionId) {
+        SharedConsumer client = connectionClients.get(connectionId);
+        return client != null ? client.getHandler(connectionId) : null;
+    }
+
+    private SharedConsumer findClient(UUID clientId) {
+        for (SharedConsumer client : clients.values()) {
+            if (client.getId().equals(clientId)) {
+                return client;
+            }
+        }
+        return null;
     }
 
     /**
      * Create Kafka consumer factory from connection details
      */
-    private ConsumerFactory<String, String> createConsumerFactory(KafkaConnectionDetails details) {
+    private ConsumerFactory<String, byte[]> createConsumerFactory(KafkaConnectionDetails details) {
+        return new DefaultKafkaConsumerFactory<>(consumerProperties(details));
+    }
+
+    /**
+     * Consumer for a replay job: the connection's brokers and credentials, its own group and no auto-commit
+     */
+    Consumer<String, byte[]> createReplayConsumer(KafkaConnectionDetails details, String groupId, int maxPollRecords) {
+        Map<String, Object> props = consumerProperties(details);
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+        return new DefaultKafkaConsumerFactory<String, byte[]>(props).createConsumer();
+    }
+
+    /**
+     * API name paths compiled for streaming extraction, null when no API uses it
+     */
+    StreamingFieldExtractor createApiNameExtractor(KafkaConnectionDetails details) {
+        return extractionPlanCache.hasStreamingApis() ? StreamingFieldExtractor.compile(compileApiNamePaths(details)) : null;
+    }
+
+    private Map<String, Object> consumerProperties(KafkaConnectionDetails details) {
         Map<String, Object> props = new HashMap<>();
 
-        // Basic config - use first broker from the list
-        String bootstrapServers = details.getKafkaBrokers().get(0);
-        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        // Bootstrap from every listed broker, so one broker being down does not take the connection offline
+        List<String> brokers = new ArrayList<>();
+        for (String broker : details.getKafkaBrokers()) {
+            brokers.add(broker.trim());
+        }
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, String.join(",", brokers));
         props.put(ConsumerConfig.GROUP_ID_CONFIG, details.getConsumerGroupId());
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        // Values stay UTF-8 bytes through parsing and forwarding
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
 
         // Default consumer config
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
-        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, true);
+        // Offsets are committed by the container (or the batch listener) once the records are done
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, !usesManualCommits(details));
+        if (details.getMaxPollRecords() != null && details.getMaxPollRecords() > 0) {
+            props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, details.getMaxPollRecords());
+        }
 
         // Security config
         if (details.getSecurityProtocol() != null) {
@@ -170,7 +906,7 @@ public class DynamicKafkaConsumerManager {
         }
 
         // Authentication if provided
-        if (details.getUserName() != null && !details.getUserName().isEmpty() && 
+        if (details.getUserName() != null && !details.getUserName().isEmpty() &&
             details.getPassword() != null && !details.getPassword().isEmpty()) {
             String jaasConfig = String.format(
                 "org.apache.kafka.common.security.plain.PlainLoginModule required username=\"%s\" password=\"%s\";",
@@ -180,105 +916,193 @@ public class DynamicKafkaConsumerManager {
             props.put("sasl.mechanism", "PLAIN");
         }
 
-        return new DefaultKafkaConsumerFactory<>(props);
+        return props;
     }
 
 
     @PreDestroy
-    public void shutdown() {
+    public synchronized void shutdown() {
         logger.info("Shutting down all Kafka consumers...");
 
-        for (Map.Entry<UUID, List<ConcurrentMessageListenerContainer<String, String>>> entry : activeContainers.entrySet()) {
-            for (ConcurrentMessageListenerContainer<String, String> container : entry.getValue()) {
-                try {
-                    container.stop();
-                    logger.debug("Stopped consumer container for connection {}", entry.getKey());
-                } catch (Exception e) {
-                    logger.error("Error stopping consumer container: {}", e.getMessage(), e);
-                }
-            }
+        // Flushes the correlation state of the repartition topic while the indexer is still up
+        correlationRepartitioner.stop();
+
+        commitFlusher.shutdownNow();
+
+        for (SharedConsumer client : clients.values()) {
+            closeClient(client);
         }
 
-        activeContainers.clear();
+        clients.clear();
+        connectionClients.clear();
+        appliedConnections.clear();
+        listenerLoads.clear();
         logger.info("All Kafka consumers shut down");
     }
 
+
     /**
-     * Add connection name and API name to the message JSON before forwarding
+     * Parse a record once and build its envelope with connection name and API name added.
+     * The enhanced payload is spliced into the original bytes; the tree is only serialized
+     * when splicing is not possible (fields already present, non-object message).
+     * For APIs using streaming extraction no tree is built at all.
      */
-    private String addConnectionNameToMessage(String originalMessage, String connectionName, KafkaConnectionDetails details) {
+    MessageEnvelope createEnvelope(ConsumerRecord<String, byte[]> record, String connectionName,
+                                           KafkaConnectionDetails details, StreamingFieldExtractor apiNameExtractor) {
+        byte[] raw = record.value();
+        JsonNode messageNode;
+        String apiName = null;
+        byte[] payload;
+
+        if (apiNameExtractor != null && raw != null) {
+            MessageEnvelope envelope = createStreamingEnvelope(record, connectionName, details, apiNameExtractor);
+            if (envelope != null) {
+                return envelope;
+            }
+        }
+
         try {
-            // Parse the original message as JSON
-            JsonNode jsonNode = objectMapper.readTree(originalMessage);
-            
+            int end;
+            JsonNode jsonNode;
+            try (JsonParser parser = objectMapper.getFactory().createParser(raw)) {
+                jsonNode = objectMapper.readTree(parser);
+                end = (int) parser.getCurrentLocation().getByteOffset();
+            }
+
             // Extract API name using field configuration
-            String apiName = extractApiNameFromMessage(jsonNode, details);
-            
-            // If it's an object, add the connection name and API name
-            if (jsonNode.isObject()) {
+            apiName = extractApiNameFromMessage(jsonNode, details);
+
+            if (jsonNode != null && jsonNode.isObject()) {
                 ObjectNode objectNode = (ObjectNode) jsonNode;
+                boolean spliceable = !objectNode.has("connectionName") && !objectNode.has("extractedApiName");
+                boolean empty = objectNode.size() == 0;
+
                 objectNode.put("connectionName", connectionName);
                 if (apiName != null) {
                     objectNode.put("extractedApiName", apiName);
                 }
-                
-                // Convert back to JSON string
-                return objectMapper.writeValueAsString(objectNode);
+                messageNode = objectNode;
+
+                payload = spliceable ? spliceFields(raw, end, empty, connectionName, apiName) : null;
+                if (payload == null) {
+                    payload = objectMapper.writeValueAsBytes(objectNode);
+                }
             } else {
                 // If it's not a JSON object, wrap it in an object with connection name
                 ObjectNode wrapper = objectMapper.createObjectNode();
-                wrapper.put("originalMessage", originalMessage);
+                wrapper.put("originalMessage", decode(raw));
                 wrapper.put("connectionName", connectionName);
                 if (apiName != null) {
                     wrapper.put("extractedApiName", apiName);
                 }
-                
-                return objectMapper.writeValueAsString(wrapper);
+                messageNode = wrapper;
+                payload = objectMapper.writeValueAsBytes(wrapper);
             }
-            
+
         } catch (Exception e) {
             logger.warn("Failed to add connection name to message, forwarding original: {}", e.getMessage());
             // If JSON parsing fails, wrap the original message
+            ObjectNode wrapper = objectMapper.createObjectNode();
+            wrapper.put("originalMessage", decode(raw));
+            wrapper.put("connectionName", connectionName);
+            messageNode = wrapper;
             try {
-                ObjectNode wrapper = objectMapper.createObjectNode();
-                wrapper.put("originalMessage", originalMessage);
-                wrapper.put("connectionName", connectionName);
-                return objectMapper.writeValueAsString(wrapper);
+                payload = objectMapper.writeValueAsBytes(wrapper);
             } catch (Exception ex) {
                 logger.error("Failed to wrap message with connection name: {}", ex.getMessage());
-                return originalMessage; // Fallback to original message
+                payload = raw != null ? raw : new byte[0]; // Fallback to original message
             }
         }
+
+        return new MessageEnvelope(record.key(), record.topic(), record.partition(), record.offset(), record.timestamp(),
+            connectionName, details, apiName, messageNode, payload);
     }
 
     /**
-     * Extract API name from message using field configuration
+     * Text of a message that is not a JSON object, only needed to wrap it
      */
-    private String extractApiNameFromMessage(JsonNode messageNode, KafkaConnectionDetails details) {
+    private static String decode(byte[] raw) {
+        return raw != null ? new String(raw, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Build a tree-less envelope from a token scan if the message belongs to a streaming API and the
+     * fields can be spliced in; null means the record goes through the tree path instead.
+     */
+    private MessageEnvelope createStreamingEnvelope(ConsumerRecord<String, byte[]> record, String connectionName,
+                                                    KafkaConnectionDetails details, StreamingFieldExtractor apiNameExtractor) {
         try {
-            // Look for APIName field in the fields configuration
-            if (details.getFields() != null) {
-                for (Map<String, Object> fieldConfig : details.getFields()) {
-                    String elasticsearchField = (String) fieldConfig.get("field");
-                    String jsonPath = (String) fieldConfig.get("path");
-                    
-                    // If this is the APIName field mapping
-                    if ("APIName".equals(elasticsearchField) && jsonPath != null) {
-                        return extractFieldByPath(messageNode, jsonPath);
-                    }
+            byte[] raw = record.value();
+            StreamingFieldExtractor.DocumentScan scan = apiNameExtractor.scan(raw, SPLICED_FIELD_NAMES);
+            if (!scan.isObject() || scan.isTopLevelKeyFound()) {
+                return null;
+            }
+
+            String apiName = null;
+            for (String value : scan.getValues()) {
+                if (value != null) {
+                    apiName = value;
+                    break;
                 }
             }
-            
-            // Fallback: try common API name field paths
-            String apiName = extractFieldByPath(messageNode, "api_name");
-            if (apiName == null) {
-                apiName = extractFieldByPath(messageNode, "apiName");
+            if (!extractionPlanCache.isStreaming(apiName)) {
+                return null;
             }
-            if (apiName == null) {
-                apiName = extractFieldByPath(messageNode, "API_NAME");
+
+            byte[] payload = spliceFields(raw, scan.getEnd(), scan.getTopLevelFields() == 0, connectionName, apiName);
+            if (payload == null) {
+                return null;
             }
-            
-            return apiName;
+            return new MessageEnvelope(record.key(), record.topic(), record.partition(), record.offset(), record.timestamp(),
+                connectionName, details, apiName, null, payload);
+
+        } catch (Exception e) {
+            // Malformed messages are wrapped by the tree path
+            return null;
+        }
+    }
+
+    /**
+     * Insert "connectionName" (and "extractedApiName") before the closing brace of the top-level object.
+     * end is the byte offset just past that object; returns null if the bytes do not have the expected shape.
+     */
+    private byte[] spliceFields(byte[] raw, int end, boolean empty, String connectionName, String apiName) throws IOException {
+        int close = end - 1;
+        if (close < 0 || close >= raw.length || raw[close] != '}') {
+            return null;
+        }
+        // Anything after the object other than whitespace would make the splice point ambiguous
+        for (int i = end; i < raw.length; i++) {
+            if (!Character.isWhitespace(raw[i])) {
+                return null;
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length + 64);
+        out.write(raw, 0, close);
+        out.write(empty ? CONNECTION_NAME_FIELD : NEXT_CONNECTION_NAME_FIELD);
+        out.write(objectMapper.writeValueAsBytes(connectionName));
+        if (apiName != null) {
+            out.write(EXTRACTED_API_NAME_FIELD);
+            out.write(objectMapper.writeValueAsBytes(apiName));
+        }
+        out.write(raw, close, raw.length - close);
+        return out.toByteArray();
+    }
+
+    /**
+     * Extract API name from message using field configuration
+     */
+    private String extractApiNameFromMessage(JsonNode messageNode, KafkaConnectionDetails details) {
+        try {
+            // First path that yields a value
+            for (String path : apiNamePaths(details)) {
+                String apiName = extractFieldByPath(messageNode, path);
+                if (apiName != null) {
+                    return apiName;
+                }
+            }
+            return null;
             
         } catch (Exception e) {
             logger.debug("⚠️ Failed to extract API name: {}", e.getMessage());
@@ -286,6 +1110,38 @@ public class DynamicKafkaConsumerManager {
         }
     }
 
+    /**
+     * Paths the API name is read from: the APIName field mapping of the connection if there is one,
+     * otherwise the common API name field paths
+     */
+    private List<String> apiNamePaths(KafkaConnectionDetails details) {
+        // Look for APIName field in the fields configuration
+        if (details.getFields() != null) {
+            for (Map<String, Object> fieldConfig : details.getFields()) {
+                String elasticsearchField = (String) fieldConfig.get("field");
+                String jsonPath = (String) fieldConfig.get("path");
+                
+                // If this is the APIName field mapping
+                if ("APIName".equals(elasticsearchField) && jsonPath != null) {
+                    return Collections.singletonList(jsonPath);
+                }
+            }
+        }
+        
+        // Fallback: try common API name field paths
+        return FALLBACK_API_NAME_PATHS;
+    }
+
+    private List<String[]> compileApiNamePaths(KafkaConnectionDetails details) {
+        List<String[]> paths = new java.util.ArrayList<>();
+        for (String path : apiNamePaths(details)) {
+            if (!path.isEmpty()) {
+                paths.add(ExtractionPlan.compilePath(path));
+            }
+        }
+        return paths;
+    }
+
     /**
      * Extract field value using JSON path
      */
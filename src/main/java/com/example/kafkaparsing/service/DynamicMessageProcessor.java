@@ -1,38 +1,53 @@
 package com.example.kafkaparsing.service;
 
 import com.example.kafkaparsing.entity.ApiMetadataField;
-import com.example.kafkaparsing.model.KafkaConnectionDetails;
+import com.example.kafkaparsing.model.MessageEnvelope;
 import com.example.kafkaparsing.model.ParsedAuditData;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 /**
  * Service for dynamic message processing that can handle any JSON structure
  * Uses database-driven field extraction based on api_metadata and api_metadata_field tables
+ *
+ * Document IDs are derived from connection + CorrelationID, and the indexer merges what it is given into
+ * the stored document. In "correlate" mode REQUESTs still wait in memory for their RESPONSE so that most
+ * transactions are written once; in "upsert" mode each half is written as soon as it arrives and
+ * Elasticsearch does the correlation.
  */
 @Service
 public class DynamicMessageProcessor {
 
     private static final Logger logger = LoggerFactory.getLogger(DynamicMessageProcessor.class);
-    private static final DateTimeFormatter DEFAULT_DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    @Value("${audit.processor.indexing-mode:correlate}")
+    private String indexingMode;
 
     @Value("${audit.processor.timeout-minutes:1}")
     private int timeoutMinutes;
@@ -40,46 +55,188 @@ public class DynamicMessageProcessor {
     @Value("${audit.processor.cleanup-interval-minutes:5}")
     private int cleanupIntervalMinutes;
 
+    @Value("${audit.processor.timeout-tick-ms:100}")
+    private long timeoutTickMs;
+
+    @Value("${audit.processor.timeout-wheel-size:512}")
+    private int timeoutWheelSize;
+
+    @Value("${audit.processor.timeout-batch-size:500}")
+    private int timeoutBatchSize;
+
+    // wall: timeouts run on the wall clock; event: on per-partition watermarks of the records' event time
+    @Value("${audit.processor.timeout-clock:wall}")
+    private String timeoutClock;
+
+    // Event time of a record: its Kafka timestamp (record) or its RequestTime / ResponseTime field (field)
+    @Value("${audit.processor.event-time-source:record}")
+    private String eventTimeSource;
+
+    // Zone of the RequestTime / ResponseTime values, which carry none
+    @Value("${audit.processor.event-time-zone:UTC}")
+    private String eventTimeZone;
+
+    // A partition without new records for this long lets its watermark follow the wall clock
+    @Value("${audit.processor.event-time-idle-seconds:30}")
+    private long eventTimeIdleSeconds;
+
+    // Per-API REQUEST timeouts learned from RequestTime -> ResponseTime latency (see AdaptiveTimeouts)
+    @Value("${audit.processor.adaptive-timeout.enabled:false}")
+    private boolean adaptiveTimeoutEnabled;
+
+    @Value("${audit.processor.adaptive-timeout.quantile:0.99}")
+    private double adaptiveTimeoutQuantile;
+
+    @Value("${audit.processor.adaptive-timeout.multiplier:3.0}")
+    private double adaptiveTimeoutMultiplier;
+
+    @Value("${audit.processor.adaptive-timeout.floor-ms:1000}")
+    private long adaptiveTimeoutFloorMs;
+
+    @Value("${audit.processor.adaptive-timeout.ceiling-ms:600000}")
+    private long adaptiveTimeoutCeilingMs;
+
+    @Value("${audit.processor.adaptive-timeout.min-samples:100}")
+    private long adaptiveTimeoutMinSamples;
+
+    @Value("${audit.processor.adaptive-timeout.max-samples:10000}")
+    private long adaptiveTimeoutMaxSamples;
+
+    @Value("${audit.processor.correlation-store.max-heap-mb:128}")
+    private long pendingMaxHeapMb;
+
+    @Value("${audit.processor.correlation-store.orphan-max-heap-mb:32}")
+    private long orphanMaxHeapMb;
+
+    @Value("${audit.processor.correlation-store.spill-enabled:true}")
+    private boolean spillEnabled;
+
+    @Value("${audit.processor.correlation-store.spill-directory:${java.io.tmpdir}/kafka-parser-spill}")
+    private String spillDirectory;
+
+    @Value("${audit.processor.correlation-store.spill-max-mb:512}")
+    private int spillMaxMb;
+
     @Autowired
-    private ElasticsearchService elasticsearchService;
+    private ElasticsearchBulkIndexer bulkIndexer;
 
     @Autowired
     private ApiMetadataService apiMetadataService;
 
-    private final ObjectMapper objectMapper = new ObjectMapper()
-            .registerModule(new JavaTimeModule())
-            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    @Autowired
+    private ExtractionPlanCache extractionPlanCache;
 
     // Store pending requests by correlation ID
-    private final ConcurrentHashMap<String, ParsedAuditData> pendingRequests = new ConcurrentHashMap<>();
-    // Store completed transactions for cleanup
-    private final ConcurrentHashMap<String, ParsedAuditData> completedTransactions = new ConcurrentHashMap<>();
-    private final ExecutorService executorService = Executors.newFixedThreadPool(5);
+    private CorrelationStore pendingRequests;
+    // Store orphaned responses waiting for their request
+    private CorrelationStore completedTransactions;
+    private CorrelationTimeoutScheduler timeoutScheduler;
+    private boolean upsertMode;
+    private boolean eventTimeMode;
+    private boolean fieldEventTime;
+    private ZoneId eventTimeZoneId;
+    // null unless adaptive timeouts are enabled
+    private AdaptiveTimeouts adaptiveTimeouts;
+
+    // Indexes expired transactions, so the timeout wheel never waits for room in the indexer queue
+    private ExecutorService timeoutFlusher;
+
+    // Cleanup of old orphaned RESPONSEs, every cleanup-interval-minutes
+    private ScheduledExecutorService cleanupScheduler;
+    private final AtomicLong cleanupRuns = new AtomicLong();
+    private final AtomicLong cleanupRemoved = new AtomicLong();
+    private final AtomicLong cleanupTotalMicros = new AtomicLong();
+    private volatile long lastCleanupAt;
+    private volatile long lastCleanupMicros;
+    private volatile int lastCleanupRemoved;
 
     @PostConstruct
     public void init() {
-        logger.info("🔧 DynamicMessageProcessor initialized with timeout: {} minutes", timeoutMinutes);
+        upsertMode = "upsert".equalsIgnoreCase(indexingMode);
+        eventTimeMode = "event".equalsIgnoreCase(timeoutClock);
+        fieldEventTime = "field".equalsIgnoreCase(eventTimeSource);
+        eventTimeZoneId = ZoneId.of(eventTimeZone);
+        if (adaptiveTimeoutEnabled) {
+            adaptiveTimeouts = new AdaptiveTimeouts(TimeUnit.MINUTES.toMillis(timeoutMinutes), adaptiveTimeoutQuantile,
+                adaptiveTimeoutMultiplier, adaptiveTimeoutFloorMs, adaptiveTimeoutCeilingMs, adaptiveTimeoutMinSamples,
+                adaptiveTimeoutMaxSamples);
+        }
+        timeoutFlusher = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "correlation-timeout-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timeoutScheduler = new CorrelationTimeoutScheduler(timeoutTickMs, timeoutWheelSize, timeoutBatchSize,
+            eventTimeMode ? TimeUnit.SECONDS.toMillis(eventTimeIdleSeconds) : 0, this::processTimeouts);
+        pendingRequests = new BoundedCorrelationStore("pending", pendingMaxHeapMb * 1024 * 1024,
+            createSpillFile("pending-requests.spill"), this::handleEvicted);
+        completedTransactions = new BoundedCorrelationStore("orphaned", orphanMaxHeapMb * 1024 * 1024,
+            createSpillFile("orphaned-responses.spill"), this::handleEvicted);
+        timeoutScheduler.start();
+
+        if (cleanupIntervalMinutes > 0) {
+            cleanupScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "correlation-cleanup");
+                thread.setDaemon(true);
+                return thread;
+            });
+            cleanupScheduler.scheduleWithFixedDelay(this::cleanupOldTransactions, cleanupIntervalMinutes,
+                cleanupIntervalMinutes, TimeUnit.MINUTES);
+        }
+        logger.info("🔧 DynamicMessageProcessor initialized with timeout: {} minutes ({} time), indexing mode: {}",
+            timeoutMinutes, eventTimeMode ? "event" : "wall", upsertMode ? "upsert" : "correlate");
     }
 
     @PreDestroy
     public void shutdown() {
         logger.info("🛑 Shutting down DynamicMessageProcessor");
-        executorService.shutdown();
+        if (cleanupScheduler != null) {
+            cleanupScheduler.shutdownNow();
+        }
+        timeoutScheduler.stop();
+        timeoutFlusher.shutdown();
+        try {
+            if (!timeoutFlusher.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("⚠️ Timed out transactions still waiting for the indexer at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pendingRequests.close();
+        completedTransactions.close();
+    }
+
+    /**
+     * Create the overflow file for a correlation store, or null to evict instead of spilling
+     */
+    private CorrelationSpillFile createSpillFile(String fileName) {
+        if (!spillEnabled) {
+            return null;
+        }
+        // A MappedByteBuffer is int-indexed
+        if (spillMaxMb <= 0 || spillMaxMb * 1024L * 1024 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("spill-max-mb must be between 1 and 2047: " + spillMaxMb);
+        }
+        try {
+            return new CorrelationSpillFile(Paths.get(spillDirectory, fileName), spillMaxMb * 1024L * 1024);
+        } catch (Exception e) {
+            logger.warn("⚠️ Failed to create spill file {} in {}, entries over budget will be evicted: {}",
+                fileName, spillDirectory, e.getMessage());
+            return null;
+        }
     }
 
     /**
      * Process incoming message dynamically based on database field configuration
      */
-    public void processMessage(String message, String connectionName, KafkaConnectionDetails connectionDetails) {
+    public void processMessage(MessageEnvelope envelope) {
+        String connectionName = envelope.getConnectionName();
         try {
             logger.debug("📨 Processing dynamic message from connection: {}", connectionName);
-            logger.debug("Message length: {} characters", message.length());
+            logger.debug("Message length: {} bytes", envelope.getPayloadLength());
 
-            // Parse message as generic JSON
-            JsonNode messageNode = objectMapper.readTree(message);
-            
             // Extract API name from message (extractedApiName added by DynamicKafkaConsumerManager)
-            String extractedApiName = extractFieldByPath(messageNode, "extractedApiName");
+            String extractedApiName = envelope.getExtractedApiName();
             
             if (extractedApiName == null) {
                 logger.warn("⚠️ No extractedApiName found in message from connection: {}", connectionName);
@@ -95,42 +252,152 @@ public class DynamicMessageProcessor {
                 logger.warn("⚠️ No field configuration found for API: {}", extractedApiName);
                 return;
             }
-            
-            // Extract log type to determine if it's REQUEST or RESPONSE
-            String logType = extractFieldByPath(messageNode, "log_type");
-            String correlationId = extractFieldByPath(messageNode, "request_id");
-            
-            if (correlationId == null) {
-                logger.warn("⚠️ No correlation ID found in message from connection: {}", connectionName);
-                return;
-            }
 
-            if ("REQUEST".equals(logType)) {
-                processRequest(messageNode, connectionName, extractedApiName, fieldConfig, correlationId);
-            } else if ("RESPONSE".equals(logType)) {
-                processResponse(messageNode, connectionName, extractedApiName, fieldConfig, correlationId);
-            } else {
-                logger.warn("⚠️ Unknown log type '{}' in message from connection: {}", logType, connectionName);
-                // Process as single message without correlation
-                processSingleMessage(messageNode, connectionName, extractedApiName, fieldConfig, correlationId);
-            }
+            // Compiled once per field configuration
+            ExtractionPlan plan = extractionPlanCache.getPlan(extractedApiName, fieldConfig);
+
+            processWithPlan(envelope, extractedApiName, plan, null);
 
         } catch (Exception e) {
             logger.error("❌ Error processing dynamic message from connection {}: {}", connectionName, e.getMessage(), e);
         }
     }
 
+    /**
+     * Process one poll batch: records are grouped by API so metadata and the extraction plan are resolved
+     * once per group, REQUEST/RESPONSE pairs within the batch are completed without going through the
+     * correlation store, and everything ready for indexing is handed to the indexer together.
+     */
+    public void processBatch(List<MessageEnvelope> envelopes) {
+        Map<String, List<MessageEnvelope>> byApi = new LinkedHashMap<>();
+        for (MessageEnvelope envelope : envelopes) {
+            if (envelope.getExtractedApiName() == null) {
+                logger.warn("⚠️ No extractedApiName found in message from connection: {}", envelope.getConnectionName());
+                continue;
+            }
+            byApi.computeIfAbsent(envelope.getExtractedApiName(), k -> new ArrayList<>()).add(envelope);
+        }
+
+        BatchContext batch = new BatchContext();
+        for (Map.Entry<String, List<MessageEnvelope>> group : byApi.entrySet()) {
+            String apiName = group.getKey();
+            List<ApiMetadataField> fieldConfig;
+            ExtractionPlan plan;
+            try {
+                fieldConfig = apiMetadataService.getFieldConfigurationForApi(apiName);
+                if (fieldConfig.isEmpty()) {
+                    logger.warn("⚠️ No field configuration found for API: {} ({} messages skipped)", apiName, group.getValue().size());
+                    continue;
+                }
+                plan = extractionPlanCache.getPlan(apiName, fieldConfig);
+            } catch (Exception e) {
+                logger.error("❌ Error loading configuration for API {} ({} messages skipped): {}", apiName, group.getValue().size(), e.getMessage(), e);
+                continue;
+            }
+
+            for (MessageEnvelope envelope : group.getValue()) {
+                try {
+                    processWithPlan(envelope, apiName, plan, batch);
+                } catch (Exception e) {
+                    logger.error("❌ Error processing dynamic message from connection {}: {}", envelope.getConnectionName(), e.getMessage(), e);
+                }
+            }
+        }
+
+        // REQUESTs not answered within the batch wait for their RESPONSE as usual
+        for (Map.Entry<String, ParsedAuditData> pending : batch.requests.entrySet()) {
+            storePendingRequest(pending.getValue(), batch.requestEnvelopes.get(pending.getKey()));
+        }
+        if (!batch.toIndex.isEmpty()) {
+            sendBatchToElasticsearch(batch.toIndex);
+        }
+
+        logger.info("📦 Processed batch of {} messages for {} APIs: {} paired in batch, {} pending, {} queued for indexing",
+            envelopes.size(), byApi.size(), batch.paired, batch.requests.size(), batch.toIndex.size());
+    }
+
+    /**
+     * Extract the configured fields and route the message by log type. batch is null outside batch processing.
+     */
+    private void processWithPlan(MessageEnvelope envelope, String apiName, ExtractionPlan plan, BatchContext batch) throws IOException {
+        String connectionName = envelope.getConnectionName();
+
+        // Read every configured path once: from the token stream for streaming APIs, else from the parsed tree
+        String[] values = envelope.isStreaming()
+            ? plan.read(envelope.getPayloadBytes())
+            : plan.read(envelope.getMessageNode());
+
+        // Extract log type to determine if it's REQUEST or RESPONSE
+        String logType = values[ExtractionPlan.LOG_TYPE_INDEX];
+        String correlationId = values[ExtractionPlan.CORRELATION_ID_INDEX];
+        
+        if (correlationId == null) {
+            logger.warn("⚠️ No correlation ID found in message from connection: {}", connectionName);
+            return;
+        }
+
+        if ("REQUEST".equals(logType)) {
+            processRequest(envelope, values, connectionName, apiName, plan, correlationId, batch);
+        } else if ("RESPONSE".equals(logType)) {
+            processResponse(envelope, values, connectionName, apiName, plan, correlationId, batch);
+        } else {
+            logger.warn("⚠️ Unknown log type '{}' in message from connection: {}", logType, connectionName);
+            // Process as single message without correlation
+            processSingleMessage(envelope, values, connectionName, apiName, plan, correlationId, batch);
+        }
+    }
+
     /**
      * Process REQUEST message
      */
-    private void processRequest(JsonNode messageNode, String connectionName, String apiName, List<ApiMetadataField> fieldConfig, String correlationId) {
+    private void processRequest(MessageEnvelope envelope, String[] values, String connectionName, String apiName, ExtractionPlan plan, String correlationId,
+                                BatchContext batch) {
         logger.info("📝 Processing REQUEST - ID: {}, API: {}, Connection: {}", correlationId, apiName, connectionName);
 
-        ParsedAuditData parsedData = createParsedDataFromMessage(messageNode, connectionName, apiName, fieldConfig, correlationId, "REQUEST");
-        pendingRequests.put(correlationId, parsedData);
+        ParsedAuditData parsedData = createParsedDataFromMessage(envelope, values, connectionName, apiName, plan, correlationId, ExtractionPlan.MessageKind.REQUEST);
+
+        if (upsertMode) {
+            // Written right away, the RESPONSE is merged into the same document when it arrives
+            index(parsedData, batch);
+            return;
+        }
+
+        // The RESPONSE may have come first; removing the orphan also cancels its deadline
+        ParsedAuditData orphanedData = completedTransactions.remove(CorrelationKey.of(correlationId));
+        if (orphanedData != null) {
+            parsedData.mergeResponse(orphanedData);
+            parsedData.setIsComplete(true);
+            recordLatency(apiName, parsedData);
+            index(parsedData, batch);
+            logger.info("✅ Transaction completed from orphaned RESPONSE for ID: {}. Remaining orphaned: {}",
+                correlationId, completedTransactions.size());
+            return;
+        }
+
+        if (batch != null) {
+            // Its RESPONSE may be in the same batch; stored once the batch is done
+            ParsedAuditData replaced = batch.requests.put(correlationId, parsedData);
+            if (replaced != null) {
+                // Same REQUEST twice in one batch (redelivery): the newer one carries the older one's records
+                logger.debug("🔁 Replacing duplicate REQUEST in batch for ID: {}", correlationId);
+                parsedData.addAcks(replaced.takeAcks());
+            }
+            batch.requestEnvelopes.put(correlationId, envelope);
+            return;
+        }
+
+        storePendingRequest(parsedData, envelope);
+    }
+
+    /**
+     * Keep a REQUEST until its RESPONSE arrives or it times out
+     */
+    private void storePendingRequest(ParsedAuditData parsedData, MessageEnvelope envelope) {
+        CorrelationKey key = CorrelationKey.of(parsedData.getCorrelationId());
 
         // Schedule timeout processing
-        scheduleTimeoutProcessing(correlationId);
+        pendingRequests.put(key, parsedData, scheduleTimeoutProcessing(key, CorrelationTimeoutScheduler.Kind.REQUEST,
+            envelope, parsedData.getRequestTime()));
 
         logger.info("⏳ REQUEST stored, waiting for RESPONSE. Pending requests: {}", pendingRequests.size());
     }
@@ -138,35 +405,50 @@ public class DynamicMessageProcessor {
     /**
      * Process RESPONSE message
      */
-    private void processResponse(JsonNode messageNode, String connectionName, String apiName, List<ApiMetadataField> fieldConfig, String correlationId) {
+    private void processResponse(MessageEnvelope envelope, String[] values, String connectionName, String apiName, ExtractionPlan plan, String correlationId,
+                                 BatchContext batch) {
         logger.info("📤 Processing RESPONSE - ID: {}, API: {}, Connection: {}", correlationId, apiName, connectionName);
 
-        ParsedAuditData pendingData = pendingRequests.get(correlationId);
+        if (upsertMode) {
+            // Merged into the REQUEST's document, or creates it if the REQUEST has not been written yet
+            index(createParsedDataFromMessage(envelope, values, connectionName, apiName, plan, correlationId,
+                ExtractionPlan.MessageKind.RESPONSE), batch);
+            return;
+        }
+
+        ParsedAuditData pendingData = batch != null ? batch.requests.remove(correlationId) : null;
+        if (pendingData != null) {
+            batch.requestEnvelopes.remove(correlationId);
+            batch.paired++;
+        } else {
+            // Removing the entry also cancels the REQUEST deadline
+            pendingData = pendingRequests.remove(CorrelationKey.of(correlationId));
+        }
         
         if (pendingData != null) {
             // Found matching request, complete the transaction
-            completeTransaction(pendingData, messageNode, fieldConfig);
-            pendingRequests.remove(correlationId);
+            completeTransaction(pendingData, envelope, values, apiName, plan, batch);
             
             logger.info("✅ Transaction completed for ID: {}. Remaining pending: {}", correlationId, pendingRequests.size());
         } else {
             // Orphaned response - wait for request
             logger.info("🔄 Orphaned RESPONSE detected for ID: {}. Waiting for REQUEST...", correlationId);
-            handleOrphanedResponse(messageNode, connectionName, apiName, fieldConfig, correlationId);
+            handleOrphanedResponse(envelope, values, connectionName, apiName, plan, correlationId);
         }
     }
 
     /**
      * Process single message (no REQUEST/RESPONSE correlation)
      */
-    private void processSingleMessage(JsonNode messageNode, String connectionName, String apiName, List<ApiMetadataField> fieldConfig, String correlationId) {
+    private void processSingleMessage(MessageEnvelope envelope, String[] values, String connectionName, String apiName, ExtractionPlan plan, String correlationId,
+                                      BatchContext batch) {
         logger.info("📄 Processing SINGLE message - ID: {}, API: {}, Connection: {}", correlationId, apiName, connectionName);
 
-        ParsedAuditData parsedData = createParsedDataFromMessage(messageNode, connectionName, apiName, fieldConfig, correlationId, "SINGLE");
+        ParsedAuditData parsedData = createParsedDataFromMessage(envelope, values, connectionName, apiName, plan, correlationId, ExtractionPlan.MessageKind.SINGLE);
         parsedData.setIsComplete(true);
         
         // Send to Elasticsearch immediately
-        sendToElasticsearch(parsedData);
+        index(parsedData, batch);
         
         logger.info("🎯 Single message processed and indexed: {}", correlationId);
     }
@@ -174,14 +456,14 @@ public class DynamicMessageProcessor {
     /**
      * Handle orphaned response (response without matching request)
      */
-    private void handleOrphanedResponse(JsonNode messageNode, String connectionName, String apiName, List<ApiMetadataField> fieldConfig, String correlationId) {
-        ParsedAuditData orphanedData = createParsedDataFromMessage(messageNode, connectionName, apiName, fieldConfig, correlationId, "RESPONSE");
+    private void handleOrphanedResponse(MessageEnvelope envelope, String[] values, String connectionName, String apiName, ExtractionPlan plan, String correlationId) {
+        ParsedAuditData orphanedData = createParsedDataFromMessage(envelope, values, connectionName, apiName, plan, correlationId, ExtractionPlan.MessageKind.RESPONSE);
         orphanedData.setIsComplete(false);
         
-        completedTransactions.put(correlationId, orphanedData);
-        
         // Schedule timeout for orphaned response
-        scheduleTimeoutProcessing(correlationId + "_orphaned");
+        CorrelationKey key = CorrelationKey.of(correlationId);
+        completedTransactions.put(key, orphanedData, scheduleTimeoutProcessing(key, CorrelationTimeoutScheduler.Kind.ORPHANED_RESPONSE,
+            envelope, orphanedData.getResponseTime()));
         
         logger.info("🔄 Orphaned RESPONSE stored for ID: {}. Waiting for REQUEST...", correlationId);
     }
@@ -189,38 +471,50 @@ public class DynamicMessageProcessor {
     /**
      * Complete transaction by merging request and response data
      */
-    private void completeTransaction(ParsedAuditData parsedData, JsonNode responseNode, List<ApiMetadataField> fieldConfig) {
-        updateParsedDataFromResponse(parsedData, responseNode, fieldConfig);
+    private void completeTransaction(ParsedAuditData parsedData, MessageEnvelope response, String[] values, String apiName,
+                                     ExtractionPlan plan, BatchContext batch) {
+        updateParsedDataFromResponse(parsedData, response, values, plan);
         parsedData.setIsComplete(true);
+        recordLatency(apiName, parsedData);
         
         // Send to Elasticsearch
-        sendToElasticsearch(parsedData);
+        index(parsedData, batch);
         
         logger.info("🎯 Transaction completed and indexed: {}", parsedData.getCorrelationId());
     }
 
     /**
      * Create ParsedAuditData from message using database-driven field extraction
-     * messageType: "REQUEST", "RESPONSE", or "SINGLE"
+     * messageType: REQUEST, RESPONSE, or SINGLE
      */
-    private ParsedAuditData createParsedDataFromMessage(JsonNode messageNode, String connectionName, String apiName, 
-                                                        List<ApiMetadataField> fieldConfig, String correlationId, String messageType) {
-        ParsedAuditData parsedData = new ParsedAuditData(correlationId);
+    private ParsedAuditData createParsedDataFromMessage(MessageEnvelope envelope, String[] values, String connectionName, String apiName, 
+                                                        ExtractionPlan plan, String correlationId, ExtractionPlan.MessageKind messageType) {
+        // No correlation-ID defaults for ParentID/TransactionID/UniqueTransactionID on a half: merged into the
+        // other half (in memory or by the update script) they would overwrite extracted values. The indexer
+        // fills them in for whatever is still missing once the document is written.
+        ParsedAuditData parsedData = new ParsedAuditData();
+        parsedData.setCorrelationId(correlationId);
+        // Same ID for both halves and for redeliveries, so late and repeated messages merge into one document
+        parsedData.setId(documentId(connectionName, correlationId));
         
         // Set API name
         parsedData.setApiName(apiName);
         
         // Extract fields using database configuration (only mandatory fields)
         // Pass messageType to know whether to extract RequestTime or ResponseTime
-        extractFieldsFromMessage(messageNode, parsedData, fieldConfig, messageType);
+        extractFieldsFromMessage(values, parsedData, plan, messageType);
         
-        // Store original message as request payload
-        try {
-            parsedData.setRequestPayload(objectMapper.writeValueAsString(messageNode));
-        } catch (Exception e) {
-            logger.warn("⚠️ Failed to serialize request payload: {}", e.getMessage());
-            parsedData.setRequestPayload("{}");
+        // Store original message, the same bytes that were forwarded; a RESPONSE on its own only fills the response side
+        if (messageType == ExtractionPlan.MessageKind.RESPONSE) {
+            parsedData.setResponsePayload(envelope.getPayloadBytes());
+        } else {
+            parsedData.setRequestPayload(envelope.getPayloadBytes());
         }
+
+        // The record's offset is not committed before this document is indexed or spooled
+        parsedData.addAck(envelope.getAck());
+        advanceEventTime(envelope, messageType == ExtractionPlan.MessageKind.RESPONSE
+            ? parsedData.getResponseTime() : parsedData.getRequestTime());
         
         logger.debug("📝 Created ParsedAuditData from message: {} (API: {}, Type: {})", correlationId, apiName, messageType);
         return parsedData;
@@ -229,319 +523,279 @@ public class DynamicMessageProcessor {
     /**
      * Update ParsedAuditData with response message data
      */
-    private void updateParsedDataFromResponse(ParsedAuditData parsedData, JsonNode responseNode, List<ApiMetadataField> fieldConfig) {
+    private void updateParsedDataFromResponse(ParsedAuditData parsedData, MessageEnvelope response, String[] values, ExtractionPlan plan) {
         // Extract response fields (only response-specific fields)
-        extractFieldsFromMessage(responseNode, parsedData, fieldConfig, "RESPONSE");
+        extractFieldsFromMessage(values, parsedData, plan, ExtractionPlan.MessageKind.RESPONSE);
         
         // Store response payload
-        try {
-            parsedData.setResponsePayload(objectMapper.writeValueAsString(responseNode));
-        } catch (Exception e) {
-            logger.warn("⚠️ Failed to serialize response payload: {}", e.getMessage());
-            parsedData.setResponsePayload("{}");
-        }
+        parsedData.setResponsePayload(response.getPayloadBytes());
+        parsedData.addAck(response.getAck());
+        advanceEventTime(response, parsedData.getResponseTime());
         
         logger.debug("📤 Updated ParsedAuditData with response: {}", parsedData.getCorrelationId());
     }
 
     /**
-     * Extract fields from message using database field configuration (Mandatory + Custom)
-     * Context-aware: Only extracts RequestTime from REQUEST, ResponseTime from RESPONSE
-     * Custom fields only extracted from REQUEST messages
+     * Extract fields from message using the compiled field configuration (Mandatory + Custom)
+     * Context-aware: the plan only holds the fields whose message_type matches the message
      */
-    private void extractFieldsFromMessage(JsonNode messageNode, ParsedAuditData parsedData, 
-                                         List<ApiMetadataField> fieldConfig, String messageType) {
-        
-        int mandatoryCount = 0;
-        int customCount = 0;
-        
-        logger.debug("📋 Extracting fields from {} message", messageType);
-        
-        for (ApiMetadataField field : fieldConfig) {
-            try {
-                String keyStatus = field.getKeyStatus();
-                String elasticsearchField = field.getField();
-                String jsonPath = field.getPath();
-                String datatype = field.getDatatype();
-                String datePattern = field.getDatePatternString();
-                
-                if ("Mandatory".equals(keyStatus)) {
-                    // Process Mandatory fields
-                    extractMandatoryField(messageNode, parsedData, field, messageType, elasticsearchField, jsonPath, datatype, datePattern);
-                    mandatoryCount++;
-                } 
-                else if ("Custom".equals(keyStatus)) {
-                    // Process Custom fields - check message_type from database
-                    String fieldMessageType = field.getMessageType();
-                    
-                    // If message_type is specified, check if it matches
-                    if (fieldMessageType != null && !fieldMessageType.isEmpty()) {
-                        if (fieldMessageType.equalsIgnoreCase(messageType)) {
-                            extractCustomField(messageNode, parsedData, elasticsearchField, jsonPath, fieldMessageType);
-                            customCount++;
-                        } else {
-                            logger.debug("   ⏭️ Skipping Custom field '{}' (requires {} message, current: {})", 
-                                elasticsearchField, fieldMessageType, messageType);
-                        }
-                    } else {
-                        // If message_type is NULL, extract from current message
-                        extractCustomField(messageNode, parsedData, elasticsearchField, jsonPath, "ANY");
-                        customCount++;
-                    }
-                }
-                
-            } catch (Exception e) {
-                logger.warn("⚠️ Failed to extract field {}: {}", field.getIdentifier(), e.getMessage());
-            }
-        }
+    private void extractFieldsFromMessage(String[] values, ParsedAuditData parsedData, 
+                                         ExtractionPlan plan, ExtractionPlan.MessageKind messageType) {
+        int extracted = plan.apply(values, parsedData, messageType);
         
-        logger.debug("📊 Extracted {} Mandatory fields and {} Custom fields from {} message", 
-            mandatoryCount, customCount, messageType);
+        logger.debug("📊 Extracted {} of {} configured fields from {} message", 
+            extracted, plan.getFieldCount(messageType), messageType);
     }
 
     /**
-     * Extract mandatory field with database-driven context awareness
+     * Document ID for a transaction: name-based UUID of connection + CorrelationID
      */
-    private void extractMandatoryField(JsonNode messageNode, ParsedAuditData parsedData, ApiMetadataField field,
-                                      String messageType, String elasticsearchField, String jsonPath, 
-                                      String datatype, String datePattern) {
-        
-        // Check if this field should be extracted from current message type
-        String fieldMessageType = field.getMessageType();
-        
-        if (fieldMessageType != null && !fieldMessageType.isEmpty()) {
-            // Field has specific message type requirement
-            if (!fieldMessageType.equalsIgnoreCase(messageType)) {
-                logger.debug("   ⏭️ Skipping {} (requires {} message, current: {})", 
-                    elasticsearchField, fieldMessageType, messageType);
-                return;
-            }
-        }
-        // If message_type is NULL, extract from both REQUEST and RESPONSE
-        
-        if (jsonPath != null && elasticsearchField != null) {
-            String value = extractFieldByPath(messageNode, jsonPath);
-            if (value != null) {
-                setFieldValue(parsedData, elasticsearchField, value, datatype, datePattern);
-                logger.debug("   ✅ Mandatory Field - {}: {} = {} (MsgType: {})", elasticsearchField, jsonPath, 
-                    value.length() > 50 ? value.substring(0, 50) + "..." : value, 
-                    fieldMessageType != null ? fieldMessageType : "ANY");
-            } else {
-                logger.debug("   ⚠️ Mandatory Field {} not found at path: {}", elasticsearchField, jsonPath);
-            }
+    static String documentId(String connectionName, String correlationId) {
+        return UUID.nameUUIDFromBytes((connectionName + '\u0000' + correlationId).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Index now, or with the rest of the batch when processing one
+     */
+    private void index(ParsedAuditData parsedData, BatchContext batch) {
+        if (batch != null) {
+            batch.toIndex.add(parsedData);
+        } else {
+            sendToElasticsearch(parsedData);
         }
     }
 
     /**
-     * Extract custom field and add to CustomField array
+     * Send ParsedAuditData to Elasticsearch through the bulk indexer
      */
-    private void extractCustomField(JsonNode messageNode, ParsedAuditData parsedData, 
-                                   String fieldName, String jsonPath, String fieldMessageType) {
-        if (jsonPath != null && fieldName != null) {
-            String value = extractFieldByPath(messageNode, jsonPath);
-            if (value != null) {
-                // Add to CustomField array with field name as key
-                parsedData.addCustomField(fieldName, value);
-                logger.debug("   ✅ Custom Field - {}: {} = {} (MsgType: {})", fieldName, jsonPath, 
-                    value.length() > 50 ? value.substring(0, 50) + "..." : value, fieldMessageType);
-            } else {
-                logger.debug("   ⚠️ Custom Field {} not found at path: {}", fieldName, jsonPath);
+    public void sendToElasticsearch(ParsedAuditData parsedData) {
+        bulkIndexer.add(parsedData);
+        logger.debug("📊 Queued audit data for indexing: {}", parsedData.getCorrelationId());
+    }
+
+    /**
+     * Send a batch of ParsedAuditData to Elasticsearch through the bulk indexer
+     */
+    public void sendBatchToElasticsearch(List<ParsedAuditData> batch) {
+        bulkIndexer.addAll(batch);
+    }
+
+    /**
+     * Schedule timeout processing for a correlation ID: the timeout after the message's event time on
+     * its partition's clock in event-time mode, otherwise (or without an event time) on the wall clock.
+     * REQUESTs get their API's learned timeout when adaptive timeouts are on, everything else timeout-minutes.
+     */
+    private CorrelationTimeoutScheduler.Timeout scheduleTimeoutProcessing(CorrelationKey key, CorrelationTimeoutScheduler.Kind kind,
+                                                                          MessageEnvelope envelope, LocalDateTime fieldTime) {
+        String apiName = envelope.getExtractedApiName();
+        long timeoutMs = adaptiveTimeouts != null && kind == CorrelationTimeoutScheduler.Kind.REQUEST
+            ? adaptiveTimeouts.getTimeoutMs(apiName)
+            : TimeUnit.MINUTES.toMillis(timeoutMinutes);
+        if (eventTimeMode) {
+            long eventTime = eventTime(envelope, fieldTime);
+            if (eventTime >= 0) {
+                return timeoutScheduler.scheduleAt(key, kind, apiName, envelope.getClockKey(), eventTime + timeoutMs);
             }
         }
+        return timeoutScheduler.schedule(key, kind, apiName, timeoutMs, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Extract field value using JSON path (supports dot notation)
+     * Feed a completed transaction's RequestTime -> ResponseTime latency to its API's timeout sketch. Keyed by
+     * the extracted API name like the lookup in scheduleTimeoutProcessing; the ApiName field may be overwritten
+     * by the extraction plan.
      */
-    private String extractFieldByPath(JsonNode node, String path) {
-        if (path == null || path.isEmpty()) {
-            return null;
-        }
-        
-        try {
-            String[] pathParts = path.split("\\.");
-            JsonNode current = node;
-            
-            for (String part : pathParts) {
-                if (current == null) return null;
-                current = current.get(part);
-            }
-            
-            return current != null && !current.isNull() ? current.asText() : null;
-        } catch (Exception e) {
-            logger.debug("⚠️ Failed to extract field by path '{}': {}", path, e.getMessage());
-            return null;
+    private void recordLatency(String apiName, ParsedAuditData parsedData) {
+        if (adaptiveTimeouts != null && parsedData.getRequestTime() != null && parsedData.getResponseTime() != null) {
+            adaptiveTimeouts.record(apiName,
+                Duration.between(parsedData.getRequestTime(), parsedData.getResponseTime()).toMillis());
         }
     }
 
     /**
-     * Set field value in ParsedAuditData based on field name and datatype
+     * Learned per-API timeouts for the stats endpoint
      */
-    private void setFieldValue(ParsedAuditData parsedData, String fieldName, String value, String datatype, String datePattern) {
-        if (value == null || fieldName == null) return;
-        
-        try {
-            switch (fieldName) {
-                case "APIName":
-                    parsedData.setApiName(value);
-                    break;
-                case "CorrelationID":
-                    parsedData.setCorrelationId(value);
-                    break;
-                case "Host":
-                    parsedData.setHost(value);
-                    break;
-                case "ParentID":
-                    parsedData.setParentId(value);
-                    break;
-                case "RequestPayload":
-                    parsedData.setRequestPayload(value);
-                    break;
-                case "ResourcePath":
-                    parsedData.setResourcePath(value);
-                    break;
-                case "ResponsePayload":
-                    parsedData.setResponsePayload(value);
-                    break;
-                case "Status":
-                    parsedData.setStatus(value);
-                    break;
-                case "StatusCode":
-                    try {
-                        parsedData.setStatusCode(Integer.parseInt(value));
-                    } catch (NumberFormatException e) {
-                        logger.debug("⚠️ Invalid status code: {}", value);
-                    }
-                    break;
-                case "TransactionID":
-                    parsedData.setTransactionId(value);
-                    break;
-                case "UniqueTransactionID":
-                    parsedData.setUniqueTransactionId(value);
-                    break;
-                case "RequestTime":
-                    LocalDateTime requestTime = parseDateTime(value, datePattern);
-                    if (requestTime != null) {
-                        parsedData.setRequestTime(requestTime);
-                        logger.debug("   ✅ Set RequestTime: {}", requestTime);
-                    }
-                    break;
-                case "ResponseTime":
-                    LocalDateTime responseTime = parseDateTime(value, datePattern);
-                    if (responseTime != null) {
-                        parsedData.setResponseTime(responseTime);
-                        logger.debug("   ✅ Set ResponseTime: {}", responseTime);
-                    }
-                    break;
-                default:
-                    logger.debug("⚠️ Unknown Elasticsearch field name: {}", fieldName);
-            }
-        } catch (Exception e) {
-            logger.debug("⚠️ Failed to set field {}: {}", fieldName, e.getMessage());
+    public Map<String, Object> getTimeoutStatistics() {
+        if (adaptiveTimeouts != null) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("adaptive", true);
+            stats.putAll(adaptiveTimeouts.getStatistics());
+            return stats;
         }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("adaptive", false);
+        stats.put("defaultTimeoutMs", TimeUnit.MINUTES.toMillis(timeoutMinutes));
+        return stats;
     }
 
     /**
-     * Parse date time string with optional custom pattern
+     * Event time of a message in epoch millis, negative if it has none
      */
-    private LocalDateTime parseDateTime(String dateTimeStr, String pattern) {
-        if (dateTimeStr == null) return null;
-        
-        try {
-            // Use custom pattern if provided
-            if (pattern != null && !pattern.isEmpty()) {
-                DateTimeFormatter customFormatter = DateTimeFormatter.ofPattern(pattern);
-                return LocalDateTime.parse(dateTimeStr, customFormatter);
-            }
-            
-            // Use default pattern
-            return LocalDateTime.parse(dateTimeStr, DEFAULT_DATE_TIME_FORMATTER);
-        } catch (Exception e) {
-            logger.debug("⚠️ Failed to parse date time '{}' with pattern '{}': {}", 
-                dateTimeStr, pattern != null ? pattern : "default", e.getMessage());
-            return null;
+    private long eventTime(MessageEnvelope envelope, LocalDateTime fieldTime) {
+        if (fieldEventTime && fieldTime != null) {
+            return fieldTime.atZone(eventTimeZoneId).toInstant().toEpochMilli();
         }
+        return envelope.getTimestamp();
     }
 
     /**
-     * Send ParsedAuditData to Elasticsearch
+     * Move the watermark of the message's partition; pending deadlines it passes expire
      */
-    @Async
-    public void sendToElasticsearch(ParsedAuditData parsedData) {
-        try {
-            elasticsearchService.indexAuditData(parsedData);
-            logger.info("📊 Successfully indexed audit data: {}", parsedData.getCorrelationId());
-        } catch (Exception e) {
-            logger.error("❌ Failed to index audit data {}: {}", 
-                parsedData.getCorrelationId(), e.getMessage(), e);
+    private void advanceEventTime(MessageEnvelope envelope, LocalDateTime fieldTime) {
+        if (eventTimeMode) {
+            long eventTime = eventTime(envelope, fieldTime);
+            if (eventTime >= 0) {
+                timeoutScheduler.advance(envelope.getClockKey(), eventTime);
+            }
         }
     }
 
     /**
-     * Schedule timeout processing for a correlation ID
+     * Process a batch of expired correlation timeouts. Runs on the timeout wheel's thread: entries are
+     * claimed here, indexing is left to the flusher thread since the indexer queue may block.
      */
-    private void scheduleTimeoutProcessing(String correlationId) {
-        executorService.submit(() -> {
+    private void processTimeouts(List<CorrelationTimeoutScheduler.Timeout> expired) {
+        List<ParsedAuditData> batch = new ArrayList<>(expired.size());
+
+        for (CorrelationTimeoutScheduler.Timeout timeout : expired) {
+            CorrelationKey correlationId = timeout.getKey();
+
+            if (timeout.getKind() == CorrelationTimeoutScheduler.Kind.REQUEST) {
+                // Only the deadline currently registered for this ID may flush it
+                ParsedAuditData pendingData = pendingRequests.remove(correlationId, timeout);
+                if (pendingData != null) {
+                    logger.info("⏰ Timeout reached for REQUEST: {}. Indexing with available data.", correlationId);
+                    pendingData.setIsComplete(false);
+                    if (adaptiveTimeouts != null) {
+                        // Its latency is at least the timeout; without this the sketch never sees past its own cutoff
+                        adaptiveTimeouts.recordTimeout(timeout.getApiName());
+                    }
+                    batch.add(pendingData);
+                }
+            } else {
+                // Timeout for orphaned response
+                ParsedAuditData orphanedData = completedTransactions.remove(correlationId, timeout);
+                if (orphanedData != null) {
+                    logger.info("⏰ Timeout reached for ORPHANED RESPONSE: {}. Indexing with available data.", correlationId);
+                    batch.add(orphanedData);
+                }
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            logger.info("⏰ Flushing {} timed out transactions", batch.size());
             try {
-                Thread.sleep(timeoutMinutes * 60 * 1000); // Convert minutes to milliseconds
-                processTimeout(correlationId);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                logger.debug("⏰ Timeout processing interrupted for: {}", correlationId);
+                timeoutFlusher.execute(() -> sendBatchToElasticsearch(batch));
+            } catch (RejectedExecutionException e) {
+                // Shutting down, the wheel is stopped already
+                sendBatchToElasticsearch(batch);
             }
-        });
+        }
     }
 
     /**
-     * Process timeout for a correlation ID
+     * Index every pending REQUEST and orphaned RESPONSE whose correlation ID matches as incomplete, for
+     * correlation IDs another instance takes over (see CorrelationRepartitioner). The half that arrives there
+     * merges into the same document. Returns the number of entries flushed.
      */
-    private void processTimeout(String correlationId) {
-        ParsedAuditData pendingData = pendingRequests.get(correlationId);
-        
-        if (pendingData != null) {
-            // Timeout for pending request
-            logger.info("⏰ Timeout reached for REQUEST: {}. Indexing with available data.", correlationId);
+    public int flushCorrelations(Predicate<CorrelationKey> filter) {
+        List<ParsedAuditData> batch = pendingRequests.removeMatching(filter);
+        for (ParsedAuditData pendingData : batch) {
             pendingData.setIsComplete(false);
-            sendToElasticsearch(pendingData);
-            pendingRequests.remove(correlationId);
-        } else if (correlationId.endsWith("_orphaned")) {
-            // Timeout for orphaned response
-            String actualCorrelationId = correlationId.replace("_orphaned", "");
-            ParsedAuditData orphanedData = completedTransactions.get(actualCorrelationId);
-            
-            if (orphanedData != null) {
-                logger.info("⏰ Timeout reached for ORPHANED RESPONSE: {}. Indexing with available data.", actualCorrelationId);
-                sendToElasticsearch(orphanedData);
-                completedTransactions.remove(actualCorrelationId);
-            }
         }
+        batch.addAll(completedTransactions.removeMatching(filter));
+        if (!batch.isEmpty()) {
+            logger.info("🔀 Flushing {} correlation entries handed over to another owner", batch.size());
+            sendBatchToElasticsearch(batch);
+        }
+        return batch.size();
+    }
+
+    /**
+     * Flush an entry pushed out of a correlation store by memory pressure as incomplete
+     */
+    private void handleEvicted(CorrelationKey correlationId, ParsedAuditData evictedData) {
+        logger.warn("⚠️ Correlation store over budget, indexing {} as incomplete", correlationId);
+        evictedData.setIsComplete(false);
+        sendToElasticsearch(evictedData);
     }
 
     /**
-     * Scheduled cleanup task
+     * Index orphaned RESPONSEs older than cleanup-interval-minutes as incomplete; runs every
+     * cleanup-interval-minutes. Their records are only acknowledged once the documents are indexed or spooled.
      */
-    @Scheduled(fixedRateString = "${audit.processor.cleanup-interval-minutes:5}")
     public void cleanupOldTransactions() {
         try {
-            int beforeSize = completedTransactions.size();
-            completedTransactions.entrySet().removeIf(entry -> 
-                entry.getValue().getIndexedAt().isBefore(LocalDateTime.now().minusMinutes(cleanupIntervalMinutes)));
-            
-            int removed = beforeSize - completedTransactions.size();
+            long start = System.nanoTime();
+            List<ParsedAuditData> expired = completedTransactions.removeInsertedBefore(
+                System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(cleanupIntervalMinutes));
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            int removed = expired.size();
+            for (ParsedAuditData orphanedData : expired) {
+                orphanedData.setIsComplete(false);
+            }
+            if (!expired.isEmpty()) {
+                sendBatchToElasticsearch(expired);
+            }
+
+            cleanupRuns.incrementAndGet();
+            cleanupRemoved.addAndGet(removed);
+            cleanupTotalMicros.addAndGet(micros);
+            lastCleanupAt = System.currentTimeMillis();
+            lastCleanupMicros = micros;
+            lastCleanupRemoved = removed;
+
             if (removed > 0) {
-                logger.info("🧹 Cleaned up {} old completed transactions", removed);
+                logger.info("🧹 Cleaned up {} old orphaned RESPONSEs in {} µs, indexed as incomplete", removed, micros);
             }
         } catch (Exception e) {
             logger.error("❌ Error during cleanup: {}", e.getMessage(), e);
         }
     }
 
+    /**
+     * Cleanup runs, removed and scanned entries, and time spent, for the stats endpoint
+     */
+    public Map<String, Object> getCleanupStatistics() {
+        long runs = cleanupRuns.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("intervalMinutes", cleanupIntervalMinutes);
+        stats.put("runs", runs);
+        stats.put("removed", cleanupRemoved.get());
+        stats.put("scanned", completedTransactions.getCleanupScannedEntries());
+        stats.put("lastRunAt", lastCleanupAt > 0 ? Instant.ofEpochMilli(lastCleanupAt).toString() : null);
+        stats.put("lastRemoved", lastCleanupRemoved);
+        stats.put("lastDurationMicros", lastCleanupMicros);
+        stats.put("avgDurationMicros", runs > 0 ? cleanupTotalMicros.get() / runs : 0);
+        return stats;
+    }
+
     /**
      * Get statistics about the processor
      */
     public String getStatistics() {
-        return String.format("DynamicMessageProcessor Stats - Pending: %d, Completed: %d, Timeout: %d min", 
-            pendingRequests.size(), completedTransactions.size(), timeoutMinutes);
+        return String.format("DynamicMessageProcessor Stats - Mode: %s, Pending: %d, Completed: %d, Timeout: %d min (%s time), "
+                + "Event clocks: %d, Max watermark lag: %d ms, Scheduled timeouts: %d, Expired timeouts: %d, "
+                + "Paired: %d, Timed out: %d, Retained bytes: %d pending / %d orphaned, Spilled: %d, Evicted: %d", 
+            upsertMode ? "upsert" : "correlate", pendingRequests.size(), completedTransactions.size(), timeoutMinutes,
+            eventTimeMode ? "event" : "wall", timeoutScheduler.getEventClockCount(), timeoutScheduler.getMaxWatermarkLagMs(),
+            timeoutScheduler.getPendingTimeouts(), timeoutScheduler.getExpiredTimeouts(),
+            pendingRequests.getCompletedEntries() + completedTransactions.getCompletedEntries(),
+            pendingRequests.getTimedOutEntries() + completedTransactions.getTimedOutEntries(),
+            pendingRequests.getRetainedBytes(), completedTransactions.getRetainedBytes(),
+            pendingRequests.getSpilledEntries() + completedTransactions.getSpilledEntries(),
+            pendingRequests.getEvictedEntries() + completedTransactions.getEvictedEntries());
     }
-}
 
+    /**
+     * State of one {@link #processBatch} call
+     */
+    private static final class BatchContext {
+
+        // REQUESTs of this batch by correlation ID, not yet answered
+        private final Map<String, ParsedAuditData> requests = new HashMap<>();
+        private final Map<String, MessageEnvelope> requestEnvelopes = new HashMap<>();
+        private final List<ParsedAuditData> toIndex = new ArrayList<>();
+        private int paired;
+    }
+}
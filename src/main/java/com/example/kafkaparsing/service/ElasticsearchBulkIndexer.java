@@ -0,0 +1,923 @@
+package com.example.kafkaparsing.service;
+
+import com.example.kafkaparsing.model.ParsedAuditData;
+import com.example.kafkaparsing.model.RecordAck;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Indexes ParsedAuditData into my_smartlogger_index through the _bulk API.
+ *
+ * A complete document already holds the whole transaction and is written with a plain index action.
+ * Anything else is a half (or an incomplete leftover) and is written as an update with a scripted upsert
+ * keyed on its ID: the non-null fields are merged into whatever is already stored, so the REQUEST and
+ * RESPONSE halves of a transaction can arrive separately (and more than once) and still end up as one
+ * document. isComplete is set once both payloads are present. Halves carry only extracted values;
+ * ParentID, TransactionID and UniqueTransactionID default to the CorrelationID when no half has one.
+ *
+ * Documents are serialized when queued. A dispatcher thread groups them into bulk requests that are
+ * flushed on document count, byte size or linger time, with at most concurrent-requests bulks in
+ * flight. Bulks are sent with performRequestAsync, so no thread waits on Elasticsearch I/O; responses
+ * are handled on a small callback pool rather than the HTTP client's I/O reactor. Only the items the
+ * bulk response reports as failed with a retryable status (429, 5xx) are queued again, with
+ * exponential backoff.
+ *
+ * Callers only ever wait for queue space. With queue-full-policy "block" a full queue pushes back on
+ * consumption; with "reject" a document that cannot be queued within enqueue-timeout-ms is dropped and counted.
+ *
+ * Documents that run out of retries, arrive while the circuit breaker is open, or are still pending at
+ * shutdown go to the {@link IndexingSpool} on disk. The breaker opens after failure-threshold failed bulk
+ * requests in a row and lets traffic through again after open-seconds; a replayer drains the spool in
+ * bulks while the breaker is closed and the live queue is not busy.
+ */
+@Service
+public class ElasticsearchBulkIndexer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ElasticsearchBulkIndexer.class);
+
+    private static final String INDEX_NAME = "my_smartlogger_index";
+    private static final ContentType NDJSON = ContentType.create("application/x-ndjson", StandardCharsets.UTF_8);
+    // Only what is needed to find failed items
+    private static final String FILTER_PATH = "errors,items.*.status,items.*.error.type,items.*.error.reason";
+
+    // Merge params.doc into the stored document; custom fields are merged by key
+    private static final String MERGE_SCRIPT =
+        "for (entry in params.doc.entrySet()) {"
+        + " if (entry.getKey() == 'CustomField' && ctx._source.CustomField != null) {"
+        + "  for (field in entry.getValue()) {"
+        + "   boolean found = false;"
+        + "   for (existing in ctx._source.CustomField) { if (existing.key == field.key) { existing.value = field.value; found = true; } }"
+        + "   if (!found) { ctx._source.CustomField.add(field); }"
+        + "  }"
+        + " } else { ctx._source[entry.getKey()] = entry.getValue(); }"
+        + "}"
+        // Correlation-ID defaults only where neither half extracted a value
+        + "if (ctx._source.ParentID == null) { ctx._source.ParentID = ctx._source.CorrelationID; }"
+        + "if (ctx._source.TransactionID == null) { ctx._source.TransactionID = ctx._source.CorrelationID; }"
+        + "if (ctx._source.UniqueTransactionID == null) { ctx._source.UniqueTransactionID = ctx._source.CorrelationID; }"
+        + "ctx._source.isComplete = params.complete || (ctx._source.RequestPayload != null && ctx._source.ResponsePayload != null);";
+    // Concurrent halves of one transaction can land in different bulks
+    private static final int RETRY_ON_CONFLICT = 3;
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DOC_PARAM = ",\"doc\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] UPDATE_SUFFIX = "}}}".getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    private RestHighLevelClient elasticsearchClient;
+
+    @Value("${audit.indexer.bulk-actions:500}")
+    private int bulkActions;
+
+    @Value("${audit.indexer.bulk-size-kb:5120}")
+    private long bulkSizeKb;
+
+    @Value("${audit.indexer.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    @Value("${audit.indexer.concurrent-requests:2}")
+    private int concurrentRequests;
+
+    @Value("${audit.indexer.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${audit.indexer.queue-full-policy:block}")
+    private String queueFullPolicy;
+
+    @Value("${audit.indexer.enqueue-timeout-ms:5000}")
+    private long enqueueTimeoutMs;
+
+    @Value("${audit.indexer.max-retries:5}")
+    private int maxRetries;
+
+    @Value("${audit.indexer.initial-backoff-ms:200}")
+    private long initialBackoffMs;
+
+    @Value("${audit.indexer.max-backoff-ms:10000}")
+    private long maxBackoffMs;
+
+    // Bulk load (replay jobs): larger bulks while at least one is running, and refresh turned off on the index
+    @Value("${audit.indexer.bulk-load.bulk-actions:5000}")
+    private int bulkLoadActions;
+
+    @Value("${audit.indexer.bulk-load.bulk-size-kb:15360}")
+    private long bulkLoadSizeKb;
+
+    @Value("${audit.indexer.spool.enabled:true}")
+    private boolean spoolEnabled;
+
+    @Value("${audit.indexer.spool.directory:./data/es-spool}")
+    private String spoolDirectory;
+
+    @Value("${audit.indexer.spool.segment-size-mb:64}")
+    private int spoolSegmentSizeMb;
+
+    @Value("${audit.indexer.spool.max-size-mb:1024}")
+    private long spoolMaxSizeMb;
+
+    @Value("${audit.indexer.spool.replay-interval-ms:1000}")
+    private long spoolReplayIntervalMs;
+
+    @Value("${audit.indexer.circuit-breaker.failure-threshold:5}")
+    private int breakerFailureThreshold;
+
+    @Value("${audit.indexer.circuit-breaker.open-seconds:30}")
+    private long breakerOpenSeconds;
+
+    // Null fields are left out so that a partial document does not erase what the other half wrote
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    private byte[] updatePrefix;
+
+    private BlockingQueue<BulkItem> queue;
+    private int maxInFlightBulks;
+    private Semaphore inFlightBulks;
+    private boolean rejectWhenFull;
+    private ThreadPoolExecutor callbackExecutor;
+    private ScheduledExecutorService retryScheduler;
+    private ScheduledExecutorService spoolReplayer;
+    private IndexingSpool spool;
+    private Thread dispatcher;
+    private volatile boolean running;
+    // Documents the dispatcher has taken off the queue but not submitted yet
+    private volatile int collecting;
+
+    // Running bulk loads, and the index refresh interval to restore after the last one (null: index default)
+    private int bulkLoads;
+    private String savedRefreshInterval;
+
+    // Documents waiting out a retry backoff, spooled if still waiting at shutdown
+    private final Set<BulkItem> retryBacklog = ConcurrentHashMap.newKeySet();
+
+    // Circuit breaker: requests are allowed again once openUntil has passed (half-open); the next
+    // failure re-opens it, the next success closes it
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openUntil;
+
+    private final AtomicLong bulksSent = new AtomicLong();
+    private final AtomicLong bulksFailed = new AtomicLong();
+    private final AtomicLong documentsIndexed = new AtomicLong();
+    private final AtomicLong documentsRetried = new AtomicLong();
+    private final AtomicLong documentsFailed = new AtomicLong();
+    private final AtomicLong documentsRejected = new AtomicLong();
+    private final AtomicLong documentsSpooled = new AtomicLong();
+    private final AtomicLong documentsReplayed = new AtomicLong();
+    private final AtomicLong breakerOpened = new AtomicLong();
+    private final AtomicLong totalFlushLatencyMs = new AtomicLong();
+    private final AtomicLong maxFlushLatencyMs = new AtomicLong();
+    private volatile long lastFlushLatencyMs;
+
+    @PostConstruct
+    public void init() {
+        try {
+            updatePrefix = ("{\"scripted_upsert\":true,\"upsert\":{},\"script\":{\"lang\":\"painless\",\"source\":"
+                + objectMapper.writeValueAsString(MERGE_SCRIPT) + ",\"params\":{\"complete\":").getBytes(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to prepare the merge script", e);
+        }
+
+        queue = new LinkedBlockingQueue<>(queueCapacity);
+        maxInFlightBulks = Math.max(1, concurrentRequests);
+        inFlightBulks = new Semaphore(maxInFlightBulks);
+        rejectWhenFull = "reject".equalsIgnoreCase(queueFullPolicy);
+
+        // At most one callback per in-flight bulk can be pending, so the queue never fills up; should it
+        // anyway, the response is handled on the calling I/O thread instead of being lost
+        callbackExecutor = new ThreadPoolExecutor(maxInFlightBulks, maxInFlightBulks, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(maxInFlightBulks), r -> {
+                Thread thread = new Thread(r, "es-bulk-callback");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+        callbackExecutor.allowCoreThreadTimeOut(true);
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "es-bulk-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (spoolEnabled) {
+            try {
+                spool = new IndexingSpool(Paths.get(spoolDirectory), spoolSegmentSizeMb * 1024 * 1024,
+                    spoolMaxSizeMb * 1024 * 1024);
+            } catch (IOException e) {
+                logger.error("❌ Failed to open indexing spool in {}, documents Elasticsearch rejects will be dropped: {}",
+                    spoolDirectory, e.getMessage(), e);
+            }
+        }
+        if (spool != null) {
+            spoolReplayer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "es-spool-replayer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            spoolReplayer.scheduleWithFixedDelay(this::replaySpool, spoolReplayIntervalMs, spoolReplayIntervalMs,
+                TimeUnit.MILLISECONDS);
+        }
+
+        running = true;
+        dispatcher = new Thread(this::dispatch, "es-bulk-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+
+        logger.info("📦 Elasticsearch bulk indexer started: {} actions / {} KB / {} ms per bulk, {} concurrent requests, {} when full",
+            bulkActions, bulkSizeKb, flushIntervalMs, maxInFlightBulks, rejectWhenFull ? "reject" : "block");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        logger.info("🛑 Flushing Elasticsearch bulk indexer, {} documents queued", queue.size());
+        running = false;
+        try {
+            if (spoolReplayer != null) {
+                spoolReplayer.shutdownNow();
+                spoolReplayer.awaitTermination(10, TimeUnit.SECONDS);
+            }
+            dispatcher.join(TimeUnit.SECONDS.toMillis(30));
+            // Every permit back means every bulk has been answered and handled
+            if (inFlightBulks.tryAcquire(maxInFlightBulks, 30, TimeUnit.SECONDS)) {
+                inFlightBulks.release(maxInFlightBulks);
+            }
+            callbackExecutor.shutdown();
+            callbackExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        retryScheduler.shutdownNow();
+
+        List<BulkItem> leftovers = new ArrayList<>(retryBacklog);
+        retryBacklog.clear();
+        queue.drainTo(leftovers);
+        if (!leftovers.isEmpty()) {
+            spoolOrFail(leftovers, "shutting down");
+        }
+        if (spool != null) {
+            spool.close();
+        }
+    }
+
+    /**
+     * Queue a document for indexing. Never waits on Elasticsearch, only for queue space (see queue-full-policy).
+     */
+    public void add(ParsedAuditData parsedData) {
+        // Generate unique ID if not set
+        if (parsedData.getId() == null) {
+            parsedData.setId(UUID.randomUUID().toString());
+        }
+
+        List<RecordAck> acks = parsedData.takeAcks();
+        // Nothing to merge into a complete document, so no script needs to run for it
+        boolean fullDocument = Boolean.TRUE.equals(parsedData.getIsComplete());
+        if (fullDocument) {
+            // Update bodies leave this to the script, so they never overwrite the other half's values
+            parsedData.applyCorrelationDefaults();
+        }
+        byte[] source;
+        try {
+            source = fullDocument ? objectMapper.writeValueAsBytes(parsedData) : updateBody(parsedData);
+        } catch (IOException e) {
+            documentsFailed.incrementAndGet();
+            logger.error("❌ Failed to serialize audit data {}: {}", parsedData.getCorrelationId(), e.getMessage(), e);
+            // Would fail again on redelivery
+            RecordAck.releaseAll(acks);
+            return;
+        }
+
+        enqueue(new BulkItem(parsedData.getId(), parsedData.getCorrelationId(), fullDocument, source, acks));
+    }
+
+    /**
+     * Queue several documents for indexing
+     */
+    public void addAll(List<ParsedAuditData> batch) {
+        for (ParsedAuditData parsedData : batch) {
+            add(parsedData);
+        }
+    }
+
+    private void enqueue(BulkItem item) {
+        try {
+            if (!rejectWhenFull) {
+                queue.put(item);
+            } else if (!queue.offer(item, enqueueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                // Dropped on purpose by the reject policy, so its record counts as handled
+                item.acknowledge();
+                documentsRejected.incrementAndGet();
+                logger.error("❌ Indexing queue full ({} documents), rejected audit data {}", queueCapacity, item.correlationId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            documentsFailed.incrementAndGet();
+            logger.error("❌ Interrupted while queueing audit data {} for indexing", item.correlationId);
+        }
+    }
+
+    /**
+     * Dispatcher loop: collect queued documents into bulks and hand them to the request threads
+     */
+    private void dispatch() {
+        List<BulkItem> batch = new ArrayList<>();
+        long batchBytes = 0;
+        long flushAt = 0;
+
+        while (running || !queue.isEmpty() || !batch.isEmpty()) {
+            try {
+                long waitMs = batch.isEmpty() ? flushIntervalMs : flushAt - System.currentTimeMillis();
+                BulkItem item = waitMs > 0 ? queue.poll(waitMs, TimeUnit.MILLISECONDS) : queue.poll();
+                if (item != null) {
+                    if (batch.isEmpty()) {
+                        flushAt = System.currentTimeMillis() + flushIntervalMs;
+                    }
+                    batch.add(item);
+                    batchBytes += item.source.length;
+                    collecting = batch.size();
+                }
+
+                boolean loading = isBulkLoading();
+                boolean full = batch.size() >= (loading ? bulkLoadActions : bulkActions)
+                    || batchBytes >= (loading ? bulkLoadSizeKb : bulkSizeKb) * 1024;
+                boolean lingered = !batch.isEmpty() && System.currentTimeMillis() >= flushAt;
+                boolean draining = !running && item == null;
+                if (!batch.isEmpty() && (full || lingered || draining)) {
+                    if (spool != null && isCircuitOpen()) {
+                        spoolOrFail(batch, "circuit breaker open");
+                    } else {
+                        submit(batch);
+                    }
+                    batch = new ArrayList<>();
+                    batchBytes = 0;
+                    collecting = 0;
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+            } catch (Exception e) {
+                logger.error("❌ Error in Elasticsearch bulk dispatcher: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private void submit(List<BulkItem> batch) throws InterruptedException {
+        // Blocks the dispatcher while the maximum number of bulks is in flight
+        inFlightBulks.acquire();
+        try {
+            sendBulk(batch);
+        } catch (RuntimeException e) {
+            inFlightBulks.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Send one bulk request without waiting for it. The permit taken in submit is released once the
+     * response has been handled.
+     */
+    private void sendBulk(List<BulkItem> batch) {
+        long start = System.currentTimeMillis();
+        Request request = new Request("POST", "/_bulk");
+        request.addParameter("filter_path", FILTER_PATH);
+        try {
+            request.setEntity(new NByteArrayEntity(buildBody(batch), NDJSON));
+        } catch (IOException e) {
+            inFlightBulks.release();
+            failPermanently(batch, "could not build bulk request: " + e.getMessage());
+            return;
+        }
+
+        elasticsearchClient.getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                complete(() -> handleResponse(batch, response, start));
+            }
+
+            @Override
+            public void onFailure(Exception exception) {
+                complete(() -> handleFailure(batch, exception, start));
+            }
+        });
+    }
+
+    /**
+     * Move response handling off the HTTP client's I/O thread
+     */
+    private void complete(Runnable handler) {
+        callbackExecutor.execute(() -> {
+            try {
+                handler.run();
+            } catch (Exception e) {
+                logger.error("❌ Error handling Elasticsearch bulk response: {}", e.getMessage(), e);
+            } finally {
+                inFlightBulks.release();
+            }
+        });
+    }
+
+    /**
+     * Sort out which items of an answered bulk need another attempt
+     */
+    private void handleResponse(List<BulkItem> batch, Response response, long start) {
+        JsonNode result;
+        try (InputStream content = response.getEntity().getContent()) {
+            result = objectMapper.readTree(content);
+        } catch (IOException e) {
+            handleFailure(batch, e, start);
+            return;
+        }
+        recordLatency(System.currentTimeMillis() - start);
+        bulksSent.incrementAndGet();
+        recordSuccess();
+        handleResult(batch, result);
+    }
+
+    private void handleFailure(List<BulkItem> batch, Exception exception, long start) {
+        recordLatency(System.currentTimeMillis() - start);
+        bulksFailed.incrementAndGet();
+        if (exception instanceof ResponseException) {
+            int status = ((ResponseException) exception).getResponse().getStatusLine().getStatusCode();
+            if (!isRetryable(status)) {
+                failPermanently(batch, "bulk request returned " + status + ": " + exception.getMessage());
+                return;
+            }
+            recordFailure("bulk request returned " + status);
+            retryOrSpool(batch, "bulk request returned " + status);
+        } else {
+            recordFailure(exception.getMessage());
+            retryOrSpool(batch, exception.getMessage());
+        }
+    }
+
+    private void retryOrSpool(List<BulkItem> batch, String reason) {
+        if (spool != null && isCircuitOpen()) {
+            spoolOrFail(batch, reason);
+        } else {
+            retry(batch, reason);
+        }
+    }
+
+    private boolean isCircuitOpen() {
+        return System.currentTimeMillis() < openUntil;
+    }
+
+    private void recordSuccess() {
+        if (consecutiveFailures.getAndSet(0) >= breakerFailureThreshold) {
+            openUntil = 0;
+            logger.info("✅ Elasticsearch reachable again, circuit breaker closed");
+        }
+    }
+
+    private void recordFailure(String reason) {
+        int failures = consecutiveFailures.incrementAndGet();
+        if (failures >= breakerFailureThreshold && !isCircuitOpen()) {
+            openUntil = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(breakerOpenSeconds);
+            breakerOpened.incrementAndGet();
+            logger.warn("⚠️ Circuit breaker open for {}s after {} failed bulk requests ({}), spooling documents",
+                breakerOpenSeconds, failures, reason);
+        }
+    }
+
+    private byte[] buildBody(List<BulkItem> batch) throws IOException {
+        int size = 0;
+        for (BulkItem item : batch) {
+            size += item.source.length + 96;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream(size);
+        for (BulkItem item : batch) {
+            body.write(actionLine(item));
+            body.write(item.source);
+            body.write('\n');
+        }
+        return body.toByteArray();
+    }
+
+    private byte[] actionLine(BulkItem item) throws IOException {
+        if (item.fullDocument) {
+            return ("{\"index\":{\"_index\":\"" + INDEX_NAME + "\",\"_id\":" + objectMapper.writeValueAsString(item.id)
+                + "}}\n").getBytes(StandardCharsets.UTF_8);
+        }
+        return ("{\"update\":{\"_index\":\"" + INDEX_NAME + "\",\"_id\":" + objectMapper.writeValueAsString(item.id)
+            + ",\"retry_on_conflict\":" + RETRY_ON_CONFLICT + "}}\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Scripted upsert merging the document's non-null fields into the stored one
+     */
+    private byte[] updateBody(ParsedAuditData parsedData) throws IOException {
+        byte[] doc = objectMapper.writeValueAsBytes(parsedData);
+        byte[] complete = Boolean.TRUE.equals(parsedData.getIsComplete()) ? TRUE : FALSE;
+        ByteArrayOutputStream body = new ByteArrayOutputStream(updatePrefix.length + doc.length + 16);
+        body.write(updatePrefix);
+        body.write(complete);
+        body.write(DOC_PARAM);
+        body.write(doc);
+        body.write(UPDATE_SUFFIX);
+        return body.toByteArray();
+    }
+
+    /**
+     * Items come back in request order; retry those with a retryable status, drop the rest of the failures
+     */
+    private void handleResult(List<BulkItem> batch, JsonNode result) {
+        if (!result.path("errors").asBoolean(false)) {
+            documentsIndexed.addAndGet(batch.size());
+            acknowledge(batch);
+            logger.debug("📊 Indexed bulk of {} documents", batch.size());
+            return;
+        }
+
+        List<BulkItem> retryable = new ArrayList<>();
+        documentsIndexed.addAndGet(classify(batch, result, retryable));
+        if (!retryable.isEmpty()) {
+            retry(retryable, retryable.size() + " of " + batch.size() + " bulk items rejected");
+        }
+    }
+
+    /**
+     * Count the indexed items of a bulk with errors, collect the retryable ones and log the rest
+     */
+    private int classify(List<BulkItem> batch, JsonNode result, List<BulkItem> retryable) {
+        JsonNode items = result.path("items");
+        int indexed = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            BulkItem item = batch.get(i);
+            JsonNode itemResult = items.path(i).path(item.fullDocument ? "index" : "update");
+            int status = itemResult.path("status").asInt(0);
+
+            if (status >= 200 && status < 300) {
+                indexed++;
+                item.acknowledge();
+            } else if (status == 0 || isRetryable(status)) {
+                retryable.add(item);
+            } else {
+                // Rejected for good (mapping, script error...): redelivering the record would not help
+                item.acknowledge();
+                documentsFailed.incrementAndGet();
+                logger.error("❌ Failed to index audit data {} ({}): {} {}", item.correlationId, status,
+                    itemResult.path("error").path("type").asText(), itemResult.path("error").path("reason").asText());
+            }
+        }
+
+        return indexed;
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == 429 || status >= 500;
+    }
+
+    /**
+     * Queue items again after a backoff, or give up on those out of attempts
+     */
+    private void retry(List<BulkItem> items, String reason) {
+        List<BulkItem> again = new ArrayList<>(items.size());
+        List<BulkItem> exhausted = new ArrayList<>();
+        int attempt = 0;
+        for (BulkItem item : items) {
+            item.attempts++;
+            if (item.attempts > maxRetries) {
+                exhausted.add(item);
+            } else {
+                again.add(item);
+                attempt = Math.max(attempt, item.attempts);
+            }
+        }
+        if (!exhausted.isEmpty()) {
+            spoolOrFail(exhausted, "out of retries after " + maxRetries + " attempts: " + reason);
+        }
+        if (again.isEmpty()) {
+            return;
+        }
+
+        long backoffMs = Math.min(maxBackoffMs, initialBackoffMs << Math.min(attempt - 1, 20));
+        logger.warn("⚠️ Retrying {} documents in {} ms (attempt {}): {}", again.size(), backoffMs, attempt, reason);
+        documentsRetried.addAndGet(again.size());
+        retryBacklog.addAll(again);
+        retryScheduler.schedule(() -> {
+            for (BulkItem item : again) {
+                if (retryBacklog.remove(item)) {
+                    requeue(item);
+                }
+            }
+        }, backoffMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Retries always wait for queue space, whatever the queue-full policy; they were accepted once already
+     */
+    private void requeue(BulkItem item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            documentsFailed.incrementAndGet();
+            logger.error("❌ Interrupted while queueing audit data {} for another attempt", item.correlationId);
+        }
+    }
+
+    /**
+     * Write documents to the spool; they only count as failed if there is no spool or it is full
+     */
+    private void spoolOrFail(List<BulkItem> items, String reason) {
+        if (spool == null) {
+            fail(items, reason);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<IndexingSpool.Record> records = new ArrayList<>(items.size());
+        for (BulkItem item : items) {
+            records.add(new IndexingSpool.Record(item.id, item.correlationId, item.fullDocument, item.source, now));
+        }
+        try {
+            if (spool.append(records)) {
+                documentsSpooled.addAndGet(items.size());
+                acknowledge(items);
+                logger.warn("💾 Spooled {} audit documents to disk: {}", items.size(), reason);
+            } else {
+                fail(items, reason + ", spool full (" + spool.getDiskBytes() / (1024 * 1024) + " MB)");
+            }
+        } catch (IOException e) {
+            fail(items, reason + ", spool write failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replayer: send spooled documents in bulks while Elasticsearch is healthy and the live queue has room.
+     * A batch is committed only once answered, so a crash replays it again (same _id, no duplicates).
+     */
+    private void replaySpool() {
+        long maxBytes = bulkSizeKb * 1024;
+        try {
+            while (spool.getPendingRecords() > 0 && !isCircuitOpen() && queue.size() < queueCapacity / 2
+                    && !Thread.currentThread().isInterrupted()) {
+                IndexingSpool.Batch spooled = spool.read(bulkActions, maxBytes);
+                List<BulkItem> batch = new ArrayList<>(spooled.getRecords().size());
+                for (IndexingSpool.Record record : spooled.getRecords()) {
+                    batch.add(new BulkItem(record.getId(), record.getCorrelationId(), record.isFullDocument(), record.getSource(), null));
+                }
+                if (batch.isEmpty()) {
+                    spool.commit(spooled);
+                    continue;
+                }
+                int respooled = replayBulk(batch);
+                if (respooled < 0) {
+                    return;
+                }
+                spool.commit(spooled);
+                if (respooled > 0) {
+                    // Elasticsearch is pushing back, try again next round
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            logger.error("❌ Error replaying indexing spool: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Send one replayed bulk on the replayer thread. Items rejected again with a retryable status go
+     * back to the end of the spool. Returns how many did, or -1 if the request itself failed.
+     */
+    private int replayBulk(List<BulkItem> batch) throws IOException {
+        Request request = new Request("POST", "/_bulk");
+        request.addParameter("filter_path", FILTER_PATH);
+        request.setEntity(new NByteArrayEntity(buildBody(batch), NDJSON));
+
+        JsonNode result;
+        long start = System.currentTimeMillis();
+        try {
+            Response response = elasticsearchClient.getLowLevelClient().performRequest(request);
+            try (InputStream content = response.getEntity().getContent()) {
+                result = objectMapper.readTree(content);
+            }
+        } catch (ResponseException e) {
+            recordFailure("replay returned " + e.getResponse().getStatusLine().getStatusCode());
+            return -1;
+        } catch (IOException e) {
+            recordFailure(e.getMessage());
+            return -1;
+        }
+        recordLatency(System.currentTimeMillis() - start);
+        bulksSent.incrementAndGet();
+        recordSuccess();
+
+        int indexed = batch.size();
+        List<BulkItem> retryable = new ArrayList<>();
+        if (result.path("errors").asBoolean(false)) {
+            indexed = classify(batch, result, retryable);
+            if (!retryable.isEmpty()) {
+                spoolOrFail(retryable, "rejected again on replay");
+            }
+        }
+        documentsIndexed.addAndGet(indexed);
+        documentsReplayed.addAndGet(indexed);
+        logger.info("♻️ Replayed {} spooled documents, {} left", indexed, spool.getPendingRecords() - batch.size());
+        return retryable.size();
+    }
+
+    /**
+     * Give up on documents that could neither be indexed nor spooled because Elasticsearch or the disk is
+     * in trouble. They are not acknowledged, so in at-least-once mode their records are consumed again after
+     * a restart or rebalance; until then the consumer pauses once audit.consumer.max-uncommitted is reached.
+     */
+    private void fail(List<BulkItem> items, String reason) {
+        documentsFailed.addAndGet(items.size());
+        logger.error("❌ Failed to index {} audit documents: {}", items.size(), reason);
+    }
+
+    /**
+     * Give up on documents that would fail the same way again (malformed body, 400 / 413 for the whole
+     * bulk). Like items rejected for good in classify, they are acknowledged so their partition keeps committing.
+     */
+    private void failPermanently(List<BulkItem> items, String reason) {
+        acknowledge(items);
+        fail(items, reason);
+    }
+
+    private static void acknowledge(List<BulkItem> items) {
+        for (BulkItem item : items) {
+            item.acknowledge();
+        }
+    }
+
+    private synchronized boolean isBulkLoading() {
+        return bulkLoads > 0;
+    }
+
+    /**
+     * Start a bulk load: bulks grow to the bulk-load limits and index refresh is turned off until the last
+     * running bulk load ends. Every call must be paired with endBulkLoad().
+     */
+    public synchronized void beginBulkLoad() {
+        if (bulkLoads++ > 0) {
+            return;
+        }
+        try {
+            Response response = elasticsearchClient.getLowLevelClient().performRequest(
+                new Request("GET", "/" + INDEX_NAME + "/_settings/index.refresh_interval"));
+            JsonNode settings = objectMapper.readTree(response.getEntity().getContent());
+            // Keyed by the concrete index name, which differs if INDEX_NAME is an alias
+            JsonNode interval = settings.elements().hasNext()
+                ? settings.elements().next().path("settings").path("index").path("refresh_interval") : null;
+            savedRefreshInterval = interval != null && interval.isTextual() ? interval.asText() : null;
+            putRefreshInterval("\"-1\"");
+            logger.info("📦 Bulk load started: {} actions / {} KB per bulk, refresh disabled on {} (was {})",
+                bulkLoadActions, bulkLoadSizeKb, INDEX_NAME, savedRefreshInterval != null ? savedRefreshInterval : "default");
+        } catch (IOException e) {
+            logger.warn("⚠️ Could not disable refresh on {} for bulk load: {}", INDEX_NAME, e.getMessage());
+        }
+    }
+
+    /**
+     * End a bulk load; the last one restores the refresh interval and refreshes the index once
+     */
+    public synchronized void endBulkLoad() {
+        if (bulkLoads == 0 || --bulkLoads > 0) {
+            return;
+        }
+        try {
+            putRefreshInterval(savedRefreshInterval != null ? objectMapper.writeValueAsString(savedRefreshInterval) : "null");
+            elasticsearchClient.getLowLevelClient().performRequest(new Request("POST", "/" + INDEX_NAME + "/_refresh"));
+            logger.info("📦 Bulk load finished, refresh interval of {} restored", INDEX_NAME);
+        } catch (IOException e) {
+            logger.error("❌ Failed to restore refresh interval of {} to {}: {}", INDEX_NAME,
+                savedRefreshInterval != null ? savedRefreshInterval : "default", e.getMessage());
+        }
+    }
+
+    private void putRefreshInterval(String value) throws IOException {
+        Request request = new Request("PUT", "/" + INDEX_NAME + "/_settings");
+        request.setJsonEntity("{\"index\":{\"refresh_interval\":" + value + "}}");
+        elasticsearchClient.getLowLevelClient().performRequest(request);
+    }
+
+    /**
+     * Wait until nothing is queued, collected, in flight or waiting for a retry. Returns false on timeout;
+     * with live traffic running alongside this may never happen.
+     */
+    public boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!queue.isEmpty() || collecting > 0 || !retryBacklog.isEmpty()
+            || inFlightBulks.availablePermits() < maxInFlightBulks) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(100);
+        }
+        return true;
+    }
+
+    private void recordLatency(long latencyMs) {
+        lastFlushLatencyMs = latencyMs;
+        totalFlushLatencyMs.addAndGet(latencyMs);
+        maxFlushLatencyMs.accumulateAndGet(latencyMs, Math::max);
+    }
+
+    /**
+     * Queue depth, in-flight bulks, outcomes and flush latency for the stats endpoint
+     */
+    public Map<String, Object> getStatistics() {
+        long bulks = bulksSent.get() + bulksFailed.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", queue.size());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("queueFullPolicy", rejectWhenFull ? "reject" : "block");
+        stats.put("inFlightBulks", maxInFlightBulks - inFlightBulks.availablePermits());
+        stats.put("awaitingRetry", retryBacklog.size());
+        stats.put("bulkLoad", isBulkLoading());
+        stats.put("bulksSent", bulksSent.get());
+        stats.put("bulksFailed", bulksFailed.get());
+        stats.put("documentsIndexed", documentsIndexed.get());
+        stats.put("documentsRetried", documentsRetried.get());
+        stats.put("documentsFailed", documentsFailed.get());
+        stats.put("documentsRejected", documentsRejected.get());
+        stats.put("lastFlushLatencyMs", lastFlushLatencyMs);
+        stats.put("avgFlushLatencyMs", bulks > 0 ? totalFlushLatencyMs.get() / bulks : 0);
+        stats.put("maxFlushLatencyMs", maxFlushLatencyMs.get());
+        stats.put("circuitBreaker", isCircuitOpen() ? "open"
+            : consecutiveFailures.get() >= breakerFailureThreshold ? "half-open" : "closed");
+        stats.put("circuitBreakerOpened", breakerOpened.get());
+        stats.put("documentsSpooled", documentsSpooled.get());
+        stats.put("documentsReplayed", documentsReplayed.get());
+        if (spool != null) {
+            long oldest = spool.getOldestSpooledAt();
+            stats.put("spoolDocuments", spool.getPendingRecords());
+            stats.put("spoolBytes", spool.getPendingBytes());
+            stats.put("spoolSegments", spool.getSegmentCount());
+            stats.put("spoolDiskBytes", spool.getDiskBytes());
+            stats.put("spoolMaxDiskBytes", spool.getMaxDiskBytes());
+            stats.put("spoolOldestAgeMs", oldest > 0 ? System.currentTimeMillis() - oldest : 0);
+            stats.put("spoolChecksumFailures", spool.getChecksumFailures());
+        }
+        return stats;
+    }
+
+    /**
+     * A document's serialized source (full document) or update body waiting to be indexed
+     */
+    private static final class BulkItem {
+
+        private final String id;
+        private final String correlationId;
+        private final boolean fullDocument;
+        private final byte[] source;
+        private int attempts;
+        // Records to acknowledge once the document is indexed or spooled, null if none
+        private List<RecordAck> acks;
+
+        private BulkItem(String id, String correlationId, boolean fullDocument, byte[] source, List<RecordAck> acks) {
+            this.id = id;
+            this.correlationId = correlationId;
+            this.fullDocument = fullDocument;
+            this.source = source;
+            this.acks = acks;
+        }
+
+        private void acknowledge() {
+            List<RecordAck> done = acks;
+            acks = null;
+            RecordAck.releaseAll(done);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.example.kafkaparsing.service;
+
+import com.example.kafkaparsing.entity.ApiMetadataField;
+import com.example.kafkaparsing.model.ParsedAuditData;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable, pre-compiled form of an API's field configuration (api_metadata_field rows).
+ *
+ * Compilation resolves everything that does not depend on the message: key status and message type
+ * filtering, JSON path splitting, the ParsedAuditData setter for each Elasticsearch field and date
+ * formatters. Applying a plan is then a loop over path segments and bound setters.
+ *
+ * Every distinct path (plus the log_type / request_id routing paths) gets a value slot. A message is
+ * read into those slots once, either from its JsonNode tree or straight from the token stream with a
+ * {@link StreamingFieldExtractor}, and the setters of the message kind are applied to the slots.
+ */
+public final class ExtractionPlan {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExtractionPlan.class);
+    private static final DateTimeFormatter DEFAULT_DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+    private static final FieldStep[] NO_STEPS = new FieldStep[0];
+
+    // Routing paths read from every message, always the first value slots
+    public static final String LOG_TYPE_PATH = "log_type";
+    public static final String CORRELATION_ID_PATH = "request_id";
+    public static final int LOG_TYPE_INDEX = 0;
+    public static final int CORRELATION_ID_INDEX = 1;
+
+    /**
+     * Message context a plan is applied in, selects the field subset
+     */
+    public enum MessageKind {
+        REQUEST,
+        RESPONSE,
+        SINGLE
+    }
+
+    /**
+     * Setter bound to one ParsedAuditData property at compile time
+     */
+    @FunctionalInterface
+    interface FieldSetter {
+        void set(ParsedAuditData parsedData, String value);
+    }
+
+    private final List<ApiMetadataField> source;
+    private final long fingerprint;
+    private final FieldStep[][] stepsByKind;
+    private final String[][] paths;
+    private final StreamingFieldExtractor streamingExtractor;
+
+    private ExtractionPlan(List<ApiMetadataField> source, long fingerprint, FieldStep[][] stepsByKind,
+                           String[][] paths, StreamingFieldExtractor streamingExtractor) {
+        this.source = source;
+        this.fingerprint = fingerprint;
+        this.stepsByKind = stepsByKind;
+        this.paths = paths;
+        this.streamingExtractor = streamingExtractor;
+    }
+
+    /**
+     * Compile a field configuration into a plan
+     */
+    public static ExtractionPlan compile(List<ApiMetadataField> fields) {
+        MessageKind[] kinds = MessageKind.values();
+        List<List<FieldStep>> steps = new ArrayList<>(kinds.length);
+        for (int i = 0; i < kinds.length; i++) {
+            steps.add(new ArrayList<>());
+        }
+
+        // Value slot per distinct path
+        Map<String, Integer> slots = new LinkedHashMap<>();
+        slots.put(LOG_TYPE_PATH, LOG_TYPE_INDEX);
+        slots.put(CORRELATION_ID_PATH, CORRELATION_ID_INDEX);
+
+        for (ApiMetadataField field : fields) {
+            FieldStep step = compileField(field, slots);
+            if (step == null) {
+                continue;
+            }
+            String fieldMessageType = field.getMessageType();
+            for (MessageKind kind : kinds) {
+                // message_type NULL means the field is extracted from every message
+                if (fieldMessageType == null || fieldMessageType.isEmpty() || fieldMessageType.equalsIgnoreCase(kind.name())) {
+                    steps.get(kind.ordinal()).add(step);
+                }
+            }
+        }
+
+        FieldStep[][] stepsByKind = new FieldStep[kinds.length][];
+        for (MessageKind kind : kinds) {
+            stepsByKind[kind.ordinal()] = steps.get(kind.ordinal()).toArray(NO_STEPS);
+        }
+        List<String[]> paths = new ArrayList<>(slots.size());
+        for (String path : slots.keySet()) {
+            paths.add(compilePath(path));
+        }
+        return new ExtractionPlan(fields, fingerprint(fields), stepsByKind, paths.toArray(new String[0][]),
+            StreamingFieldExtractor.compile(paths));
+    }
+
+    private static FieldStep compileField(ApiMetadataField field, Map<String, Integer> slots) {
+        String keyStatus = field.getKeyStatus();
+        String fieldName = field.getField();
+        String jsonPath = field.getPath();
+
+        if (fieldName == null || jsonPath == null || jsonPath.isEmpty()) {
+            return null;
+        }
+
+        if ("Mandatory".equals(keyStatus)) {
+            FieldSetter setter = bindSetter(fieldName, field.getDatePatternString());
+            if (setter == null) {
+                return null;
+            }
+            return new FieldStep(fieldName, jsonPath, slot(slots, jsonPath), setter);
+        }
+        if ("Custom".equals(keyStatus)) {
+            return new FieldStep(fieldName, jsonPath, slot(slots, jsonPath),
+                (parsedData, value) -> parsedData.addCustomField(fieldName, value));
+        }
+        return null;
+    }
+
+    private static int slot(Map<String, Integer> slots, String path) {
+        return slots.computeIfAbsent(path, p -> slots.size());
+    }
+
+    /**
+     * Bind the ParsedAuditData setter for an Elasticsearch field name
+     */
+    private static FieldSetter bindSetter(String fieldName, String datePattern) {
+        switch (fieldName) {
+            case "APIName":
+                return ParsedAuditData::setApiName;
+            case "CorrelationID":
+                return ParsedAuditData::setCorrelationId;
+            case "Host":
+                return ParsedAuditData::setHost;
+            case "ParentID":
+                return ParsedAuditData::setParentId;
+            case "RequestPayload":
+                return (parsedData, value) -> parsedData.setRequestPayload(value.getBytes(StandardCharsets.UTF_8));
+            case "ResourcePath":
+                return ParsedAuditData::setResourcePath;
+            case "ResponsePayload":
+                return (parsedData, value) -> parsedData.setResponsePayload(value.getBytes(StandardCharsets.UTF_8));
+            case "Status":
+                return ParsedAuditData::setStatus;
+            case "StatusCode":
+                return (parsedData, value) -> {
+                    try {
+                        parsedData.setStatusCode(Integer.parseInt(value));
+                    } catch (NumberFormatException e) {
+                        logger.debug("⚠️ Invalid status code: {}", value);
+                    }
+                };
+            case "TransactionID":
+                return ParsedAuditData::setTransactionId;
+            case "UniqueTransactionID":
+                return ParsedAuditData::setUniqueTransactionId;
+            case "RequestTime": {
+                DateTimeFormatter formatter = compileFormatter(fieldName, datePattern);
+                return formatter == null ? null : (parsedData, value) -> {
+                    LocalDateTime requestTime = parseDateTime(value, formatter);
+                    if (requestTime != null) {
+                        parsedData.setRequestTime(requestTime);
+                    }
+                };
+            }
+            case "ResponseTime": {
+                DateTimeFormatter formatter = compileFormatter(fieldName, datePattern);
+                return formatter == null ? null : (parsedData, value) -> {
+                    LocalDateTime responseTime = parseDateTime(value, formatter);
+                    if (responseTime != null) {
+                        parsedData.setResponseTime(responseTime);
+                    }
+                };
+            }
+            default:
+                logger.debug("⚠️ Unknown Elasticsearch field name: {}", fieldName);
+                return null;
+        }
+    }
+
+    private static DateTimeFormatter compileFormatter(String fieldName, String pattern) {
+        if (pattern == null || pattern.isEmpty()) {
+            return DEFAULT_DATE_TIME_FORMATTER;
+        }
+        try {
+            return DateTimeFormatter.ofPattern(pattern);
+        } catch (IllegalArgumentException e) {
+            logger.warn("⚠️ Invalid date pattern '{}' for field {}, field will not be extracted: {}", pattern, fieldName, e.getMessage());
+            return null;
+        }
+    }
+
+    private static LocalDateTime parseDateTime(String dateTimeStr, DateTimeFormatter formatter) {
+        try {
+            return LocalDateTime.parse(dateTimeStr, formatter);
+        } catch (Exception e) {
+            logger.debug("⚠️ Failed to parse date time '{}': {}", dateTimeStr, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Split a dot notation JSON path once, at compile time
+     */
+    public static String[] compilePath(String path) {
+        return path.split("\\.");
+    }
+
+    /**
+     * Resolve a pre-split path against a message, same semantics as the original dot notation lookup
+     */
+    public static String valueAt(JsonNode node, String[] segments) {
+        JsonNode current = node;
+        for (String segment : segments) {
+            if (current == null) {
+                return null;
+            }
+            current = current.get(segment);
+        }
+        return current != null && !current.isNull() ? current.asText() : null;
+    }
+
+    /**
+     * Read every path of the plan from a parsed message
+     */
+    public String[] read(JsonNode messageNode) {
+        String[] values = new String[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            values[i] = valueAt(messageNode, paths[i]);
+        }
+        return values;
+    }
+
+    /**
+     * Read every path of the plan from raw JSON without building a tree, see {@link StreamingFieldExtractor}
+     */
+    public String[] read(byte[] json) throws IOException {
+        return streamingExtractor.extract(json);
+    }
+
+    /**
+     * Apply the plan to values read by {@link #read}, returns the number of fields extracted
+     */
+    public int apply(String[] values, ParsedAuditData parsedData, MessageKind kind) {
+        FieldStep[] steps = stepsByKind[kind.ordinal()];
+        int extracted = 0;
+        for (FieldStep step : steps) {
+            String value = values[step.slot];
+            if (value != null) {
+                step.setter.set(parsedData, value);
+                extracted++;
+            }
+        }
+        return extracted;
+    }
+
+    /**
+     * Number of fields extracted for a message kind
+     */
+    public int getFieldCount(MessageKind kind) {
+        return stepsByKind[kind.ordinal()].length;
+    }
+
+    /**
+     * Same plan bound to an equivalent configuration instance, e.g. after a metadata refresh
+     */
+    public ExtractionPlan withSource(List<ApiMetadataField> fields) {
+        return new ExtractionPlan(fields, fingerprint, stepsByKind, paths, streamingExtractor);
+    }
+
+    /**
+     * Configuration the plan was compiled from
+     */
+    public List<ApiMetadataField> getSource() {
+        return source;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Hash of every field property that affects extraction
+     */
+    public static long fingerprint(List<ApiMetadataField> fields) {
+        long hash = fields.size();
+        for (ApiMetadataField field : fields) {
+            hash = 31 * hash + Objects.hash(field.getId(), field.getField(), field.getPath(), field.getKeyStatus(),
+                field.getMessageType(), field.getDatatype(), field.getDatePatternString());
+        }
+        return hash;
+    }
+
+    /**
+     * One compiled field: value slot of its path plus bound setter
+     */
+    private static final class FieldStep {
+
+        private final String fieldName;
+        private final String path;
+        private final int slot;
+        private final FieldSetter setter;
+
+        private FieldStep(String fieldName, String path, int slot, FieldSetter setter) {
+            this.fieldName = fieldName;
+            this.path = path;
+            this.slot = slot;
+            this.setter = setter;
+        }
+
+        @Override
+        public String toString() {
+            return fieldName + "=" + path;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.kafkaparsing.service;
+
+import com.example.kafkaparsing.entity.ApiMetadataField;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches compiled {@link ExtractionPlan}s per API name until the field configuration changes
+ */
+@Component
+public class ExtractionPlanCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExtractionPlanCache.class);
+
+    // APIs read with the StreamingFieldExtractor instead of a JsonNode tree
+    @Value("${audit.processor.streaming-apis:}")
+    private List<String> streamingApiNames;
+
+    private final ConcurrentHashMap<String, ExtractionPlan> plans = new ConcurrentHashMap<>();
+    private Set<String> streamingApis = Collections.emptySet();
+
+    @PostConstruct
+    public void init() {
+        Set<String> names = new HashSet<>();
+        if (streamingApiNames != null) {
+            for (String name : streamingApiNames) {
+                if (name != null && !name.trim().isEmpty()) {
+                    names.add(name.trim().toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        streamingApis = Collections.unmodifiableSet(names);
+        if (!streamingApis.isEmpty()) {
+            logger.info("🛠️ Streaming field extraction enabled for APIs: {}", streamingApis);
+        }
+    }
+
+    /**
+     * Whether messages of an API are extracted from the token stream ("*" enables every API)
+     */
+    public boolean isStreaming(String apiName) {
+        if (apiName == null || streamingApis.isEmpty()) {
+            return false;
+        }
+        return streamingApis.contains("*") || streamingApis.contains(apiName.trim().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Whether any API uses streaming extraction
+     */
+    public boolean hasStreamingApis() {
+        return !streamingApis.isEmpty();
+    }
+
+    /**
+     * Get the compiled plan for an API, recompiling when the given configuration differs from the cached one
+     */
+    public ExtractionPlan getPlan(String apiName, List<ApiMetadataField> fields) {
+        ExtractionPlan plan = plans.get(apiName);
+        if (plan != null) {
+            if (plan.getSource() == fields) {
+                return plan;
+            }
+            // A refreshed but unchanged configuration keeps its plan, rebound so the identity check hits next time
+            if (plan.getFingerprint() == ExtractionPlan.fingerprint(fields)) {
+                ExtractionPlan rebound = plan.withSource(fields);
+                plans.put(apiName, rebound);
+                return rebound;
+            }
+        }
+
+        ExtractionPlan compiled = ExtractionPlan.compile(fields);
+        plans.put(apiName, compiled);
+        logger.info("🛠️ Compiled extraction plan for API '{}': {} REQUEST, {} RESPONSE, {} SINGLE fields", apiName,
+            compiled.getFieldCount(ExtractionPlan.MessageKind.REQUEST),
+            compiled.getFieldCount(ExtractionPlan.MessageKind.RESPONSE),
+            compiled.getFieldCount(ExtractionPlan.MessageKind.SINGLE));
+        return compiled;
+    }
+
+    /**
+     * Drop the cached plans for one API, under any spelling of its name
+     */
+    public void invalidate(String apiName) {
+        String normalized = apiName.trim();
+        if (plans.keySet().removeIf(name -> name.trim().equalsIgnoreCase(normalized))) {
+            logger.info("🧹 Invalidated extraction plan for API '{}'", apiName);
+        }
+    }
+
+    public void invalidateAll() {
+        plans.clear();
+    }
+
+    public int size() {
+        return plans.size();
+    }
+}
@@ -0,0 +1,485 @@
+package com.example.kafkaparsing.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Disk-backed write-ahead spool for audit documents Elasticsearch could not take.
+ *
+ * Documents are appended to memory-mapped segment files of a fixed size, each record framed as
+ * [int length][int crc32][payload] and followed by a zero length marking the end of the segment.
+ * Unlike the correlation spill file the spool survives restarts: on startup existing segments are
+ * scanned up to the first empty or corrupt record and replayed. Records are read from the oldest
+ * segment and a segment is deleted once everything in it has been committed. Disk usage is bounded
+ * by max-size / segment-size segments; when they are all in use appends are refused.
+ */
+public class IndexingSpool implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexingSpool.class);
+
+    private static final int HEADER_BYTES = Integer.BYTES * 2;
+    private static final int FLAG_CORRELATION_ID = 1;
+    private static final int FLAG_FULL_DOCUMENT = 2;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+
+    // Guarded by this; oldest first, the last one is written to
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private Segment active;
+    private long nextSequence;
+    private int readPosition;
+    private long pendingRecords;
+    private long pendingBytes;
+    private long checksumFailures;
+
+    public IndexingSpool(Path directory, int segmentBytes, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = (int) Math.max(1, maxBytes / segmentBytes);
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * Pick up segments left by a previous run
+     */
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+
+        for (Path file : files) {
+            long sequence = sequenceOf(file);
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            if (Files.size(file) != segmentBytes) {
+                logger.warn("⚠️ Ignoring spool segment {} with unexpected size {} (segment size {})",
+                    file, Files.size(file), segmentBytes);
+                continue;
+            }
+
+            Segment segment = new Segment(file, false);
+            if (segment.records == 0) {
+                segment.delete();
+                continue;
+            }
+            segments.addLast(segment);
+            pendingRecords += segment.records;
+            pendingBytes += segment.limit;
+        }
+
+        if (pendingRecords > 0) {
+            logger.info("💾 Recovered {} spooled documents in {} segments from {}", pendingRecords, segments.size(), directory);
+        }
+    }
+
+    /**
+     * Append documents and flush them to disk. Returns false, appending nothing, if they do not fit.
+     */
+    public synchronized boolean append(List<Record> records) throws IOException {
+        List<byte[]> encoded = new ArrayList<>(records.size());
+        for (Record record : records) {
+            byte[] payload = encode(record);
+            if (HEADER_BYTES + payload.length + Integer.BYTES > segmentBytes) {
+                throw new IOException("Document " + record.getId() + " of " + payload.length + " bytes does not fit a spool segment");
+            }
+            encoded.add(payload);
+        }
+        if (!hasRoomFor(encoded)) {
+            return false;
+        }
+
+        for (byte[] payload : encoded) {
+            int required = HEADER_BYTES + payload.length + Integer.BYTES;
+            if (active == null || active.limit + required > segmentBytes) {
+                roll();
+            }
+            active.write(payload);
+            pendingRecords++;
+            pendingBytes += HEADER_BYTES + payload.length;
+        }
+        active.buffer.force();
+        return true;
+    }
+
+    /**
+     * Whether the records fit the free space of the active segment plus the segments still allowed
+     */
+    private boolean hasRoomFor(List<byte[]> encoded) {
+        int segmentCount = segments.size();
+        int position = active != null ? active.limit : segmentBytes;
+        for (byte[] payload : encoded) {
+            int required = HEADER_BYTES + payload.length + Integer.BYTES;
+            if (position + required > segmentBytes) {
+                if (++segmentCount > maxSegments) {
+                    return false;
+                }
+                position = 0;
+            }
+            position += required - Integer.BYTES;
+        }
+        return true;
+    }
+
+    private void roll() throws IOException {
+        if (active != null) {
+            active.buffer.force();
+        }
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextSequence, SEGMENT_SUFFIX));
+        active = new Segment(file, true);
+        nextSequence++;
+        segments.addLast(active);
+    }
+
+    /**
+     * Read up to maxRecords / maxBytes of the oldest documents without consuming them
+     */
+    public synchronized Batch read(int maxRecords, long maxBytes) {
+        List<Record> records = new ArrayList<>();
+        int skipped = 0;
+        long bytes = 0;
+        int segmentIndex = 0;
+        int position = readPosition;
+
+        for (Segment segment : segments) {
+            while (records.size() < maxRecords && bytes < maxBytes && position < segment.limit) {
+                int start = position;
+                int length = segment.buffer.getInt(start);
+                byte[] payload = new byte[length];
+                ByteBuffer source = segment.buffer.duplicate();
+                source.position(start + HEADER_BYTES);
+                source.get(payload);
+                position = start + HEADER_BYTES + length;
+
+                if (checksum(payload) != segment.buffer.getInt(start + Integer.BYTES)) {
+                    // Checked when the segment was opened; only bit rot on a mapped page gets here
+                    checksumFailures++;
+                    skipped++;
+                    logger.error("❌ Checksum mismatch in spool segment {} at {}, skipping record", segment.path, start);
+                    continue;
+                }
+                try {
+                    records.add(decode(payload));
+                    bytes += length;
+                } catch (IOException e) {
+                    skipped++;
+                    logger.error("❌ Unreadable record in spool segment {}: {}", segment.path, e.getMessage());
+                }
+            }
+            // The active segment may still grow, so a batch never ends past it
+            if (records.size() >= maxRecords || bytes >= maxBytes || segment == active) {
+                break;
+            }
+            segmentIndex++;
+            position = 0;
+        }
+        return new Batch(records, skipped, segmentIndex, position);
+    }
+
+    /**
+     * Consume everything up to the end of a batch returned by {@link #read}; fully read segments are deleted
+     */
+    public synchronized void commit(Batch batch) {
+        for (int i = 0; i < batch.segmentIndex && !segments.isEmpty(); i++) {
+            Segment segment = segments.pollFirst();
+            pendingBytes -= segment.limit - (i == 0 ? readPosition : 0);
+            if (segment == active) {
+                active = null;
+            }
+            segment.delete();
+            readPosition = 0;
+        }
+
+        Segment head = segments.peekFirst();
+        if (head != null) {
+            pendingBytes -= batch.position - readPosition;
+            readPosition = batch.position;
+            if (readPosition >= head.limit && head != active) {
+                segments.pollFirst();
+                head.delete();
+                readPosition = 0;
+            }
+        }
+
+        pendingRecords -= batch.records.size() + batch.skipped;
+        if (pendingRecords <= 0 || segments.isEmpty()) {
+            // Nothing left: drop the active segment too, the next append starts a fresh one
+            for (Segment segment : segments) {
+                segment.delete();
+            }
+            segments.clear();
+            active = null;
+            readPosition = 0;
+            pendingRecords = 0;
+            pendingBytes = 0;
+        }
+    }
+
+    /**
+     * Time the oldest pending document was spooled, 0 if the spool is empty
+     */
+    public synchronized long getOldestSpooledAt() {
+        Segment head = segments.peekFirst();
+        if (head == null || readPosition >= head.limit) {
+            return 0;
+        }
+        // The spool time leads the payload
+        return head.buffer.getLong(readPosition + HEADER_BYTES);
+    }
+
+    public synchronized long getPendingRecords() {
+        return pendingRecords;
+    }
+
+    public synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Disk space taken by segment files
+     */
+    public synchronized long getDiskBytes() {
+        return (long) segments.size() * segmentBytes;
+    }
+
+    public long getMaxDiskBytes() {
+        return (long) maxSegments * segmentBytes;
+    }
+
+    public synchronized long getChecksumFailures() {
+        return checksumFailures;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (active != null) {
+            active.buffer.force();
+        }
+        for (Segment segment : segments) {
+            segment.closeChannel();
+        }
+    }
+
+    private static byte[] encode(Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(record.source.length + 128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(record.spooledAt);
+            out.writeUTF(record.id);
+            // Flags byte, was a plain boolean for the correlation ID: older records decode as update bodies
+            out.writeByte((record.correlationId != null ? FLAG_CORRELATION_ID : 0) | (record.fullDocument ? FLAG_FULL_DOCUMENT : 0));
+            out.writeUTF(record.correlationId != null ? record.correlationId : "");
+            out.writeInt(record.source.length);
+            out.write(record.source);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Record decode(byte[] payload) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            long spooledAt = in.readLong();
+            String id = in.readUTF();
+            int flags = in.readUnsignedByte();
+            String correlationId = in.readUTF();
+            byte[] source = new byte[in.readInt()];
+            in.readFully(source);
+            return new Record(id, (flags & FLAG_CORRELATION_ID) != 0 ? correlationId : null,
+                (flags & FLAG_FULL_DOCUMENT) != 0, source, spooledAt);
+        }
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    private static long sequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * A spooled document
+     */
+    public static final class Record {
+
+        private final String id;
+        private final String correlationId;
+        // Source is the whole document (index action) rather than a scripted upsert body
+        private final boolean fullDocument;
+        private final byte[] source;
+        private final long spooledAt;
+
+        public Record(String id, String correlationId, boolean fullDocument, byte[] source, long spooledAt) {
+            this.id = id;
+            this.correlationId = correlationId;
+            this.fullDocument = fullDocument;
+            this.source = source;
+            this.spooledAt = spooledAt;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getCorrelationId() {
+            return correlationId;
+        }
+
+        public boolean isFullDocument() {
+            return fullDocument;
+        }
+
+        public byte[] getSource() {
+            return source;
+        }
+
+        public long getSpooledAt() {
+            return spooledAt;
+        }
+    }
+
+    /**
+     * Records returned by {@link #read}, with the position to commit once they are indexed
+     */
+    public static final class Batch {
+
+        private final List<Record> records;
+        private final int skipped;
+        private final int segmentIndex;
+        private final int position;
+
+        private Batch(List<Record> records, int skipped, int segmentIndex, int position) {
+            this.records = records;
+            this.skipped = skipped;
+            this.segmentIndex = segmentIndex;
+            this.position = position;
+        }
+
+        public List<Record> getRecords() {
+            return records;
+        }
+
+        public boolean isEmpty() {
+            return records.isEmpty() && skipped == 0;
+        }
+    }
+
+    /**
+     * One mapped segment file. limit is where the next record goes (active) or where valid data ends.
+     */
+    private final class Segment {
+
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int limit;
+        private int records;
+
+        private Segment(Path path, boolean create) throws IOException {
+            this.path = path;
+            this.channel = create
+                ? FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.SPARSE)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            if (!create) {
+                scan();
+            }
+        }
+
+        /**
+         * Find the end of valid data: the first zero length, a length past the end, or a checksum mismatch
+         * (a write torn by a crash)
+         */
+        private void scan() {
+            int position = 0;
+            while (position + HEADER_BYTES <= segmentBytes) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || position + HEADER_BYTES + length > segmentBytes) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                ByteBuffer source = buffer.duplicate();
+                source.position(position + HEADER_BYTES);
+                source.get(payload);
+                if (checksum(payload) != buffer.getInt(position + Integer.BYTES)) {
+                    checksumFailures++;
+                    logger.warn("⚠️ Spool segment {} has a corrupt record at {}, dropping the rest of the segment", path, position);
+                    break;
+                }
+                position += HEADER_BYTES + length;
+                records++;
+            }
+            limit = position;
+        }
+
+        private void write(byte[] payload) {
+            int position = limit;
+            ByteBuffer target = buffer.duplicate();
+            target.position(position + HEADER_BYTES);
+            target.put(payload);
+            buffer.putInt(position + Integer.BYTES, checksum(payload));
+            // End marker first, then the length that makes the record visible to a scan
+            int next = position + HEADER_BYTES + payload.length;
+            if (next + Integer.BYTES <= segmentBytes) {
+                buffer.putInt(next, 0);
+            }
+            buffer.putInt(position, payload.length);
+            limit = next;
+            records++;
+        }
+
+        private void closeChannel() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("⚠️ Failed to close spool segment {}: {}", path, e.getMessage());
+            }
+        }
+
+        private void delete() {
+            closeChannel();
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                logger.warn("⚠️ Failed to delete spool segment {}: {}", path, e.getMessage());
+            }
+        }
+    }
+}
@@ -1,51 +1,335 @@
 package com.example.kafkaparsing.service;
 
 import com.example.kafkaparsing.model.RetryConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Service;
+import org.springframework.util.concurrent.ListenableFuture;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Forwards enhanced messages to raw-data-topic_kafka.
+ *
+ * In "async" mode (default) a send returns as soon as the record is handed to the producer, so the
+ * producer can batch and the listener thread never waits for a broker round-trip. Completion is
+ * handled in callbacks: at most max-in-flight sends are outstanding, failed sends are retried after the
+ * RetryConfig backoff on a separate thread, and messages out of attempts go to the dead-letter topic with
+ * the failure in kafka_dlt-* headers. "sync" mode keeps the blocking send().get() with retries in the caller.
+ *
+ * A full window is back-pressure, not a failed attempt. The listener waits at most max-wait-ms for a slot;
+ * after that the message joins a waiting queue sent in order as slots free up, and isBackPressured() tells
+ * the consumer to pause until the queue is empty. Retries never wait for a slot, they join the queue too.
+ */
 @Service
 public class KafkaMessageForwarder {
 
     private static final Logger logger = LoggerFactory.getLogger(KafkaMessageForwarder.class);
     private static final String DESTINATION_TOPIC = "raw-data-topic_kafka";
+    private static final String ATTEMPTS_HEADER = "forward-attempts";
 
     @Autowired
     private KafkaTemplate<String, String> stringKafkaTemplate;
 
+    @Autowired
+    private KafkaTemplate<String, byte[]> byteArrayKafkaTemplate;
+
+    @Value("${audit.forwarder.mode:async}")
+    private String mode;
+
+    @Value("${audit.forwarder.max-in-flight:1000}")
+    private int maxInFlight;
+
+    @Value("${audit.forwarder.max-wait-ms:100}")
+    private long maxWaitMs;
+
+    @Value("${audit.forwarder.max-retry-backlog:10000}")
+    private int maxRetryBacklog;
+
+    @Value("${audit.forwarder.dead-letter-topic:" + DESTINATION_TOPIC + ".DLT}")
+    private String deadLetterTopic;
+
+    private boolean async;
+    private Semaphore inFlight;
+    private ScheduledExecutorService retryScheduler;
+
+    // Messages waiting for an in-flight slot, oldest first
+    private final Queue<OutgoingMessage> waiting = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final AtomicInteger retryBacklog = new AtomicInteger();
+    private final AtomicLong forwarded = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        async = !"sync".equalsIgnoreCase(mode);
+        inFlight = new Semaphore(Math.max(1, maxInFlight));
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "forwarder-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("📤 Kafka message forwarder started in {} mode (max in flight: {}, dead-letter topic: {})",
+            async ? "async" : "sync", maxInFlight, deadLetterTopic);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retryScheduler.shutdown();
+        try {
+            stringKafkaTemplate.flush();
+            byteArrayKafkaTemplate.flush();
+            // Wait for the callbacks of what was already sent
+            int permits = Math.max(1, maxInFlight);
+            if (inFlight.tryAcquire(permits, 10, TimeUnit.SECONDS)) {
+                inFlight.release(permits);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("⚠️ Error flushing forwarder on shutdown: {}", e.getMessage());
+        }
+        if (!waiting.isEmpty()) {
+            logger.warn("⚠️ Kafka message forwarder stopped with {} messages waiting for an in-flight slot", waiting.size());
+        }
+        if (retryBacklog.get() > 0) {
+            logger.warn("⚠️ Kafka message forwarder stopped with {} messages waiting for a retry", retryBacklog.get());
+        }
+    }
+
     /**
-     * Forward message to destination Kafka with retry logic
+     * Forward message to destination Kafka with retry logic.
+     * A byte[] value is sent as is, anything else as its String form.
      */
     public void forwardMessage(String key, Object value, RetryConfig retryConfig) {
         if (retryConfig == null) {
             retryConfig = new RetryConfig(3, 1000); // Default: 3 attempts, 1 second backoff
         }
 
+        // Send bytes unchanged, convert anything else to String if it's not already
+        byte[] bytesValue = (value instanceof byte[]) ? (byte[]) value : null;
+        String messageValue = bytesValue != null ? null : (value instanceof String) ? (String) value : String.valueOf(value);
+
+        if (async) {
+            send(new OutgoingMessage(key, bytesValue, messageValue, retryConfig), maxWaitMs);
+        } else {
+            forwardBlocking(key, bytesValue, messageValue, retryConfig);
+        }
+    }
+
+    /**
+     * Forward message with default retry config
+     */
+    public void forwardMessage(String key, Object value) {
+        forwardMessage(key, value, null);
+    }
+
+    /**
+     * Messages are waiting for an in-flight slot; consumers should pause until this is false again
+     */
+    public boolean isBackPressured() {
+        return !waiting.isEmpty();
+    }
+
+    /**
+     * Hand one attempt to the producer, waiting at most waitMs for an in-flight slot. Without one (or with
+     * others already waiting, to keep their order) the message is queued until a send completes.
+     */
+    private void send(OutgoingMessage message, long waitMs) {
+        boolean acquired = false;
+        if (waiting.isEmpty()) {
+            try {
+                acquired = waitMs > 0 ? inFlight.tryAcquire(waitMs, TimeUnit.MILLISECONDS) : inFlight.tryAcquire();
+            } catch (InterruptedException e) {
+                // Caller stopping; the message still goes out from the queue
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!acquired) {
+            waiting.add(message);
+            if (inFlight.availablePermits() > 0) {
+                // Slots freed up in between, nobody else is going to drain
+                scheduleDrain();
+            }
+            return;
+        }
+        doSend(message);
+    }
+
+    /**
+     * Send queued messages while slots are free; on the retry thread, never on a producer thread
+     */
+    private void scheduleDrain() {
+        if (waiting.isEmpty() || !drainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            retryScheduler.execute(() -> {
+                drainScheduled.set(false);
+                OutgoingMessage message;
+                while (!waiting.isEmpty() && inFlight.tryAcquire()) {
+                    if ((message = waiting.poll()) == null) {
+                        inFlight.release();
+                        return;
+                    }
+                    doSend(message);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            drainScheduled.set(false);
+            // Shutting down
+            int lost = 0;
+            while (waiting.poll() != null) {
+                lost++;
+            }
+            dropped.addAndGet(lost);
+            logger.error("❌ Failed to forward {} waiting messages to {} during shutdown", lost, DESTINATION_TOPIC);
+        }
+    }
+
+    /**
+     * Send with an in-flight slot already taken; the outcome is handled in the callback
+     */
+    private void doSend(OutgoingMessage message) {
+        ListenableFuture<? extends SendResult<String, ?>> future;
+        try {
+            future = message.bytesValue != null
+                ? byteArrayKafkaTemplate.send(DESTINATION_TOPIC, message.key, message.bytesValue)
+                : stringKafkaTemplate.send(DESTINATION_TOPIC, message.key, message.stringValue);
+        } catch (Exception e) {
+            inFlight.release();
+            scheduleDrain();
+            onFailure(message, e);
+            return;
+        }
+
+        future.addCallback(result -> {
+            inFlight.release();
+            scheduleDrain();
+            forwarded.incrementAndGet();
+            logger.debug("Forwarded message to {} on attempt {}", DESTINATION_TOPIC, message.attempts + 1);
+        }, e -> {
+            inFlight.release();
+            scheduleDrain();
+            onFailure(message, e);
+        });
+    }
+
+    /**
+     * Schedule another attempt, or dead-letter the message. Runs on producer threads, so nothing here blocks.
+     */
+    private void onFailure(OutgoingMessage message, Throwable cause) {
+        message.attempts++;
+        failedAttempts.incrementAndGet();
+        try {
+            retryOrDeadLetter(message, cause);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            dropped.incrementAndGet();
+            logger.error("❌ Failed to forward message to {} during shutdown: {}", DESTINATION_TOPIC, cause.getMessage());
+        }
+    }
+
+    private void retryOrDeadLetter(OutgoingMessage message, Throwable cause) {
+        if (message.attempts >= message.retryConfig.getMaxAttempts()) {
+            logger.warn("Failed to forward message to {} after {} attempts, sending to {}: {}",
+                DESTINATION_TOPIC, message.attempts, deadLetterTopic, cause.getMessage());
+            retryScheduler.execute(() -> deadLetter(message, cause));
+            return;
+        }
+        if (retryBacklog.incrementAndGet() > maxRetryBacklog) {
+            retryBacklog.decrementAndGet();
+            logger.warn("Forward retry backlog full ({}), sending to {}: {}", maxRetryBacklog, deadLetterTopic, cause.getMessage());
+            retryScheduler.execute(() -> deadLetter(message, cause));
+            return;
+        }
+
+        logger.debug("Failed to forward message to {} (attempt {}/{}), retrying in {} ms: {}", DESTINATION_TOPIC,
+            message.attempts, message.retryConfig.getMaxAttempts(), message.retryConfig.getBackoffMs(), cause.getMessage());
+        retried.incrementAndGet();
+        retryScheduler.schedule(() -> {
+            retryBacklog.decrementAndGet();
+            send(message, 0);
+        }, message.retryConfig.getBackoffMs(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Publish a message that could not be forwarded to the dead-letter topic, with the failure in headers
+     */
+    private void deadLetter(OutgoingMessage message, Throwable cause) {
+        byte[] value = message.bytesValue != null ? message.bytesValue : message.stringValue.getBytes(StandardCharsets.UTF_8);
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>(deadLetterTopic, message.key, value);
+        record.headers().add(KafkaHeaders.DLT_ORIGINAL_TOPIC, DESTINATION_TOPIC.getBytes(StandardCharsets.UTF_8));
+        record.headers().add(KafkaHeaders.DLT_EXCEPTION_FQCN, cause.getClass().getName().getBytes(StandardCharsets.UTF_8));
+        record.headers().add(KafkaHeaders.DLT_EXCEPTION_MESSAGE,
+            String.valueOf(cause.getMessage()).getBytes(StandardCharsets.UTF_8));
+        record.headers().add(ATTEMPTS_HEADER, Integer.toString(message.attempts).getBytes(StandardCharsets.UTF_8));
+
+        try {
+            byteArrayKafkaTemplate.send(record).addCallback(
+                result -> deadLettered.incrementAndGet(),
+                e -> {
+                    dropped.incrementAndGet();
+                    logger.error("❌ Failed to send message to dead-letter topic {}, message dropped: {}", deadLetterTopic, e.getMessage());
+                });
+        } catch (Exception e) {
+            dropped.incrementAndGet();
+            logger.error("❌ Failed to send message to dead-letter topic {}, message dropped: {}", deadLetterTopic, e.getMessage());
+        }
+    }
+
+    /**
+     * Blocking send with retries on the calling thread ("sync" mode)
+     */
+    private void forwardBlocking(String key, byte[] bytesValue, String messageValue, RetryConfig retryConfig) {
         int attempts = 0;
         Exception lastException = null;
-        
-        // Convert value to String if it's not already
-        String messageValue = (value instanceof String) ? (String) value : String.valueOf(value);
 
         while (attempts < retryConfig.getMaxAttempts()) {
             try {
                 logger.debug("Forwarding message to {} (attempt {}/{})", DESTINATION_TOPIC, attempts + 1, retryConfig.getMaxAttempts());
-                
-                stringKafkaTemplate.send(DESTINATION_TOPIC, key, messageValue).get(); // Blocking send with .get()
-                
+
+                if (bytesValue != null) {
+                    byteArrayKafkaTemplate.send(DESTINATION_TOPIC, key, bytesValue).get(); // Blocking send with .get()
+                } else {
+                    stringKafkaTemplate.send(DESTINATION_TOPIC, key, messageValue).get(); // Blocking send with .get()
+                }
+
+                forwarded.incrementAndGet();
                 logger.info("Successfully forwarded message to {} on attempt {}", DESTINATION_TOPIC, attempts + 1);
                 return; // Success - exit method
-                
+
             } catch (Exception e) {
                 attempts++;
                 lastException = e;
-                
-                logger.warn("Failed to forward message to {} (attempt {}/{}): {}", 
+                failedAttempts.incrementAndGet();
+
+                logger.warn("Failed to forward message to {} (attempt {}/{}): {}",
                     DESTINATION_TOPIC, attempts, retryConfig.getMaxAttempts(), e.getMessage());
-                
+
                 if (attempts < retryConfig.getMaxAttempts()) {
                     try {
                         logger.debug("Waiting {} ms before retry", retryConfig.getBackoffMs());
@@ -60,16 +344,45 @@ public class KafkaMessageForwarder {
         }
 
         // All retries failed
-        logger.error("Failed to forward message to {} after {} attempts. Last error: {}", 
-            DESTINATION_TOPIC, retryConfig.getMaxAttempts(), 
+        dropped.incrementAndGet();
+        logger.error("Failed to forward message to {} after {} attempts. Last error: {}",
+            DESTINATION_TOPIC, retryConfig.getMaxAttempts(),
             lastException != null ? lastException.getMessage() : "Unknown error");
     }
 
     /**
-     * Forward message with default retry config
+     * Forwarding counters for the stats endpoint
      */
-    public void forwardMessage(String key, Object value) {
-        forwardMessage(key, value, null);
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", async ? "async" : "sync");
+        stats.put("inFlight", Math.max(1, maxInFlight) - inFlight.availablePermits());
+        stats.put("waitingForSlot", waiting.size());
+        stats.put("awaitingRetry", retryBacklog.get());
+        stats.put("forwarded", forwarded.get());
+        stats.put("failedAttempts", failedAttempts.get());
+        stats.put("retried", retried.get());
+        stats.put("deadLettered", deadLettered.get());
+        stats.put("dropped", dropped.get());
+        return stats;
     }
-}
 
+    /**
+     * A message being forwarded, with its attempt count
+     */
+    private static final class OutgoingMessage {
+
+        private final String key;
+        private final byte[] bytesValue;
+        private final String stringValue;
+        private final RetryConfig retryConfig;
+        private volatile int attempts;
+
+        private OutgoingMessage(String key, byte[] bytesValue, String stringValue, RetryConfig retryConfig) {
+            this.key = key;
+            this.bytesValue = bytesValue;
+            this.stringValue = stringValue;
+            this.retryConfig = retryConfig;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.kafkaparsing.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed set of single-threaded worker lanes. Tasks with the same key always run on the same lane,
+ * in submission order; tasks with different keys run in parallel. submit() blocks while the lane's
+ * queue is full, which holds back the consumer thread feeding it.
+ */
+public final class KeyOrderedLanes {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeyOrderedLanes.class);
+
+    private final Lane[] lanes;
+
+    public KeyOrderedLanes(String name, int laneCount, int laneCapacity) {
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(laneCapacity);
+            Thread thread = new Thread(lanes[i], name + "-lane-" + i);
+            thread.setDaemon(true);
+            lanes[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Queue a task on the lane of its key; a null key may go to any lane
+     */
+    public void submit(String key, long fallbackHash, Runnable task) throws InterruptedException {
+        int hash = key != null ? key.hashCode() : Long.hashCode(fallbackHash);
+        // Spread the hash so keys differing only in high bits do not share a lane
+        hash ^= hash >>> 16;
+        lanes[Math.floorMod(hash, lanes.length)].queue.put(task);
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Tasks waiting in all lanes
+     */
+    public int getQueued() {
+        int queued = 0;
+        for (Lane lane : lanes) {
+            queued += lane.queue.size();
+        }
+        return queued;
+    }
+
+    /**
+     * Let the lanes finish what is queued, then stop them
+     */
+    public void shutdown(long timeoutMs) {
+        for (Lane lane : lanes) {
+            lane.running = false;
+        }
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (Lane lane : lanes) {
+            try {
+                lane.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (lane.thread.isAlive()) {
+                logger.warn("⚠️ Lane {} did not finish within {} ms, {} tasks left", lane.thread.getName(), timeoutMs, lane.queue.size());
+                lane.thread.interrupt();
+            }
+        }
+    }
+
+    private static final class Lane implements Runnable {
+        private final BlockingQueue<Runnable> queue;
+        private volatile boolean running = true;
+        private Thread thread;
+
+        Lane(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public void run() {
+            while (running || !queue.isEmpty()) {
+                Runnable task;
+                try {
+                    task = queue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (task == null) {
+                    continue;
+                }
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    logger.error("❌ Error in lane task: {}", e.getMessage(), e);
+                }
+            }
+        }
+    }
+}
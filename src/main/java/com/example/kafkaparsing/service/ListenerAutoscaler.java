@@ -0,0 +1,148 @@
+package com.example.kafkaparsing.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Grows and shrinks the consumer concurrency of connections with "autoscale": true (per shared consumer
+ * client, see DynamicKafkaConsumerManager).
+ *
+ * Every interval the listener utilization (time spent in the listener per consumer thread) and the
+ * consumer lag are sampled. A connection that is both behind (lag over lag-threshold) and busy is
+ * given more consumers, up to its maxConcurrency / partition count; one that is caught up and mostly
+ * idle gives one back, down to its configured concurrency. Resizing restarts the container and
+ * rebalances the group, so changes are at least cooldown-seconds apart.
+ */
+@Service
+public class ListenerAutoscaler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ListenerAutoscaler.class);
+
+    @Value("${audit.autoscaler.enabled:true}")
+    private boolean enabled;
+
+    @Value("${audit.autoscaler.interval-seconds:30}")
+    private long intervalSeconds;
+
+    @Value("${audit.autoscaler.cooldown-seconds:120}")
+    private long cooldownSeconds;
+
+    @Value("${audit.autoscaler.lag-threshold:1000}")
+    private long lagThreshold;
+
+    @Value("${audit.autoscaler.scale-up-utilization:0.75}")
+    private double scaleUpUtilization;
+
+    @Value("${audit.autoscaler.scale-down-utilization:0.25}")
+    private double scaleDownUtilization;
+
+    @Autowired
+    private DynamicKafkaConsumerManager dynamicKafkaConsumerManager;
+
+    private ScheduledExecutorService scheduler;
+    private long lastSampleNanos;
+
+    // Last sample per consumer client, for the stats endpoint
+    private final Map<UUID, Map<String, Object>> lastSamples = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            logger.info("Listener autoscaling disabled");
+            return;
+        }
+        lastSampleNanos = System.nanoTime();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "listener-autoscaler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::evaluate, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void evaluate() {
+        long now = System.nanoTime();
+        long elapsedNanos = Math.max(1, now - lastSampleNanos);
+        lastSampleNanos = now;
+
+        for (Map.Entry<UUID, ListenerLoad> entry : dynamicKafkaConsumerManager.getListenerLoads().entrySet()) {
+            try {
+                evaluate(entry.getKey(), entry.getValue(), elapsedNanos);
+            } catch (Exception e) {
+                logger.error("❌ Error autoscaling consumer of '{}': {}", entry.getValue().getConnectionName(), e.getMessage(), e);
+            }
+        }
+        lastSamples.keySet().retainAll(dynamicKafkaConsumerManager.getListenerLoads().keySet());
+    }
+
+    private void evaluate(UUID clientId, ListenerLoad load, long elapsedNanos) {
+        int concurrency = load.getConcurrency();
+        double utilization = (double) load.takeBusyNanos() / ((double) elapsedNanos * concurrency);
+        long records = load.takeRecords();
+        long lag = dynamicKafkaConsumerManager.getConsumerLag(clientId);
+
+        Map<String, Object> sample = new LinkedHashMap<>();
+        sample.put("connections", load.getConnectionName());
+        sample.put("concurrency", concurrency);
+        sample.put("minConcurrency", load.getMinConcurrency());
+        sample.put("maxConcurrency", load.getMaxConcurrency());
+        sample.put("partitions", load.getPartitions());
+        sample.put("lag", lag);
+        sample.put("utilization", Math.round(utilization * 100) / 100.0);
+        sample.put("recordsPerSecond", records * TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+        lastSamples.put(clientId, sample);
+
+        if (load.getMaxConcurrency() <= load.getMinConcurrency()) {
+            return;
+        }
+        if (System.currentTimeMillis() - load.getLastResizeAt() < TimeUnit.SECONDS.toMillis(cooldownSeconds)) {
+            return;
+        }
+
+        int target = concurrency;
+        if (lag > lagThreshold && utilization >= scaleUpUtilization) {
+            // Behind and the consumers are busy: add half again, at least one
+            target = Math.min(load.getMaxConcurrency(), concurrency + Math.max(1, concurrency / 2));
+        } else if (lag >= 0 && lag <= lagThreshold / 10 && utilization <= scaleDownUtilization) {
+            target = Math.max(load.getMinConcurrency(), concurrency - 1);
+        }
+
+        if (target != concurrency) {
+            logger.info("📈 Resizing consumer of '{}' from {} to {} consumers (lag {}, utilization {})",
+                load.getConnectionName(), concurrency, target, lag, String.format("%.2f", utilization));
+            dynamicKafkaConsumerManager.resizeClient(clientId, target);
+        }
+    }
+
+    /**
+     * Last sample of every running consumer client, plus lane usage of clients in parallel mode
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("consumers", dynamicKafkaConsumerManager.getClientStatistics());
+        stats.put("clients", lastSamples.values());
+        stats.put("parallel", dynamicKafkaConsumerManager.getParallelStatistics());
+        return stats;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.kafkaparsing.service;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Work done by the listener threads of one connection, sampled by ListenerAutoscaler
+ */
+public final class ListenerLoad {
+
+    private final String connectionName;
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final int partitions;
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder records = new LongAdder();
+    private volatile int concurrency;
+    private volatile long lastResizeAt;
+
+    public ListenerLoad(String connectionName, int minConcurrency, int maxConcurrency, int partitions, int concurrency) {
+        this.connectionName = connectionName;
+        this.minConcurrency = minConcurrency;
+        this.maxConcurrency = maxConcurrency;
+        this.partitions = partitions;
+        this.concurrency = concurrency;
+        this.lastResizeAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Record one listener call that handled recordCount records
+     */
+    public void record(int recordCount, long elapsedNanos) {
+        records.add(recordCount);
+        busyNanos.add(elapsedNanos);
+    }
+
+    /**
+     * Listener time since the last call, resetting it
+     */
+    public long takeBusyNanos() {
+        return busyNanos.sumThenReset();
+    }
+
+    public long takeRecords() {
+        return records.sumThenReset();
+    }
+
+    public String getConnectionName() {
+        return connectionName;
+    }
+
+    public int getMinConcurrency() {
+        return minConcurrency;
+    }
+
+    /**
+     * Upper bound for autoscaling: configured maxConcurrency, never more than the partition count
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public long getLastResizeAt() {
+        return lastResizeAt;
+    }
+
+    void resized(int concurrency) {
+        this.concurrency = concurrency;
+        this.lastResizeAt = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.kafkaparsing.service;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks records that finish out of order (worker lanes, or documents waiting to be indexed) and
+ * acknowledges per partition only up to the lowest offset that is not done yet. With AckMode.MANUAL an
+ * acknowledged record commits its offset + 1, so a commit never skips a record that is still being processed.
+ *
+ * Acknowledgements are at most one per partition per commit interval; the latest one is held back and
+ * sent by flush() once the interval has passed.
+ *
+ * track() is called on the consumer thread in offset order; complete() and flush() from any thread.
+ */
+public final class OffsetTracker {
+
+    private final Map<TopicPartition, PartitionOffsets> partitions = new ConcurrentHashMap<>();
+    private final long commitIntervalMs;
+    private final int maxUncommitted;
+
+    /**
+     * @param commitIntervalMs minimum time between acknowledgements of one partition, 0 to acknowledge every advance
+     * @param maxUncommitted tracked records (done or not) at which the consumer should pause, see isFull()
+     */
+    public OffsetTracker(long commitIntervalMs, int maxUncommitted) {
+        this.commitIntervalMs = commitIntervalMs;
+        this.maxUncommitted = Math.max(1, maxUncommitted);
+    }
+
+    /**
+     * Start tracking a record; the returned entry is passed to complete() once it has been processed
+     */
+    public Entry track(ConsumerRecord<?, ?> record, Acknowledgment acknowledgment) {
+        TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+        PartitionOffsets offsets = partitions.computeIfAbsent(partition, p -> new PartitionOffsets(commitIntervalMs));
+        Entry entry = new Entry(offsets, record.offset(), acknowledgment);
+        offsets.add(entry);
+        return entry;
+    }
+
+    /**
+     * Mark a record as processed and acknowledge the highest record below which everything is done
+     */
+    public void complete(Entry entry) {
+        entry.offsets.complete(entry);
+    }
+
+    /**
+     * Send acknowledgements held back by the commit interval once it has passed
+     */
+    public void flush() {
+        for (PartitionOffsets offsets : partitions.values()) {
+            offsets.flush(false);
+        }
+    }
+
+    /**
+     * Wait until the records of the given partitions are processed (so their acknowledgments are in before
+     * the container commits on revocation), then forget them. Returns false if the timeout ran out first;
+     * records still in flight then finish without being acknowledged and are consumed again by the new owner.
+     */
+    public boolean revoke(Collection<TopicPartition> revoked, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        boolean drained = true;
+        for (TopicPartition partition : revoked) {
+            PartitionOffsets offsets = partitions.remove(partition);
+            if (offsets != null) {
+                drained &= offsets.awaitEmpty(deadline);
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Records handed out and not completed yet
+     */
+    public int getInFlight() {
+        int inFlight = 0;
+        for (PartitionOffsets offsets : partitions.values()) {
+            inFlight += offsets.size();
+        }
+        return inFlight;
+    }
+
+    /**
+     * True once maxUncommitted records wait for a commit. A record that is never completed holds back every
+     * later one of its partition, so the caller pauses consumption rather than letting them pile up.
+     */
+    public boolean isFull() {
+        return getInFlight() >= maxUncommitted;
+    }
+
+    /**
+     * True when a paused consumer may resume: below half of maxUncommitted
+     */
+    public boolean hasRoom() {
+        return getInFlight() < maxUncommitted / 2;
+    }
+
+    /**
+     * One tracked record
+     */
+    public static final class Entry {
+        private final PartitionOffsets offsets;
+        private final long offset;
+        private final Acknowledgment acknowledgment;
+        private boolean done;
+
+        private Entry(PartitionOffsets offsets, long offset, Acknowledgment acknowledgment) {
+            this.offsets = offsets;
+            this.offset = offset;
+            this.acknowledgment = acknowledgment;
+        }
+    }
+
+    private static final class PartitionOffsets {
+        private final TreeMap<Long, Entry> pending = new TreeMap<>();
+        private final long commitIntervalMs;
+        private Acknowledgment deferred;
+        private long lastAckAt;
+        private boolean revoked;
+
+        PartitionOffsets(long commitIntervalMs) {
+            this.commitIntervalMs = commitIntervalMs;
+        }
+
+        synchronized void add(Entry entry) {
+            pending.put(entry.offset, entry);
+        }
+
+        /**
+         * Acknowledges under the lock, so revoke() cannot return between the last completion and its
+         * acknowledgment reaching the container
+         */
+        synchronized void complete(Entry entry) {
+            entry.done = true;
+            Entry last = null;
+            while (!pending.isEmpty() && pending.firstEntry().getValue().done) {
+                last = pending.pollFirstEntry().getValue();
+            }
+            // Acknowledgments for a revoked partition would commit on behalf of its new owner
+            if (last != null && !revoked) {
+                deferred = last.acknowledgment;
+                flush(false);
+            }
+            if (pending.isEmpty()) {
+                notifyAll();
+            }
+        }
+
+        synchronized void flush(boolean force) {
+            long now = System.currentTimeMillis();
+            if (deferred != null && !revoked && (force || now - lastAckAt >= commitIntervalMs)) {
+                deferred.acknowledge();
+                deferred = null;
+                lastAckAt = now;
+            }
+        }
+
+        synchronized boolean awaitEmpty(long deadline) throws InterruptedException {
+            try {
+                long remaining;
+                while (!pending.isEmpty() && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                return pending.isEmpty();
+            } finally {
+                // Whatever is done gets committed by the container right after the revocation callback
+                flush(true);
+                revoked = true;
+            }
+        }
+
+        synchronized int size() {
+            return pending.size();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.kafkaparsing.service;
+
+import com.example.kafkaparsing.model.KafkaConnectionDetails;
+import org.apache.kafka.common.TopicPartition;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State and progress of one replay job. Written by the job's thread, read by the progress endpoint.
+ */
+final class ReplayJob {
+
+    enum State { QUEUED, RUNNING, DRAINING, COMPLETED, CANCELLED, FAILED }
+
+    private final UUID id;
+    private final UUID connectionId;
+    private final String connectionName;
+    private final KafkaConnectionDetails details;
+    private final String groupId;
+    private final Long fromMillis;
+    private final Long toMillis;
+    private final Map<Integer, Long> startOffsets;
+    private final Map<Integer, Long> endOffsets;
+    private final long createdAt = System.currentTimeMillis();
+
+    // Range and position by partition, set once the job has resolved its range
+    private final Map<TopicPartition, long[]> ranges = new ConcurrentHashMap<>();
+    private final AtomicLong records = new AtomicLong();
+
+    private volatile State state = State.QUEUED;
+    private volatile boolean cancelRequested;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile String error;
+
+    ReplayJob(UUID id, UUID connectionId, String connectionName, KafkaConnectionDetails details, String groupId,
+              Long fromMillis, Long toMillis, Map<Integer, Long> startOffsets, Map<Integer, Long> endOffsets) {
+        this.id = id;
+        this.connectionId = connectionId;
+        this.connectionName = connectionName;
+        this.details = details;
+        this.groupId = groupId;
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        this.startOffsets = startOffsets;
+        this.endOffsets = endOffsets;
+    }
+
+    UUID getId() {
+        return id;
+    }
+
+    String getConnectionName() {
+        return connectionName;
+    }
+
+    KafkaConnectionDetails getDetails() {
+        return details;
+    }
+
+    String getGroupId() {
+        return groupId;
+    }
+
+    Long getFromMillis() {
+        return fromMillis;
+    }
+
+    Long getToMillis() {
+        return toMillis;
+    }
+
+    Map<Integer, Long> getStartOffsets() {
+        return startOffsets;
+    }
+
+    Map<Integer, Long> getEndOffsets() {
+        return endOffsets;
+    }
+
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    boolean isFinished() {
+        return state == State.COMPLETED || state == State.CANCELLED || state == State.FAILED;
+    }
+
+    boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    void cancel() {
+        cancelRequested = true;
+    }
+
+    void started() {
+        startedAt = System.currentTimeMillis();
+        state = State.RUNNING;
+    }
+
+    void draining() {
+        state = State.DRAINING;
+    }
+
+    void finished(State finalState, String error) {
+        this.error = error;
+        finishedAt = System.currentTimeMillis();
+        state = finalState;
+    }
+
+    void setRange(TopicPartition partition, long start, long end) {
+        ranges.put(partition, new long[] {start, end, start});
+    }
+
+    void setPosition(TopicPartition partition, long position) {
+        long[] range = ranges.get(partition);
+        if (range != null) {
+            range[2] = Math.min(position, range[1]);
+        }
+    }
+
+    long getRecords() {
+        return records.get();
+    }
+
+    void addRecords(int count) {
+        records.addAndGet(count);
+    }
+
+    /**
+     * Progress snapshot for the replay endpoints
+     */
+    Map<String, Object> toMap() {
+        long total = 0;
+        long done = 0;
+        List<Map<String, Object>> partitions = new ArrayList<>();
+        for (Map.Entry<TopicPartition, long[]> entry : ranges.entrySet()) {
+            long[] range = entry.getValue();
+            total += range[1] - range[0];
+            done += range[2] - range[0];
+            Map<String, Object> partition = new LinkedHashMap<>();
+            partition.put("partition", entry.getKey().partition());
+            partition.put("startOffset", range[0]);
+            partition.put("endOffset", range[1]);
+            partition.put("position", range[2]);
+            partitions.add(partition);
+        }
+        partitions.sort((a, b) -> Integer.compare((Integer) a.get("partition"), (Integer) b.get("partition")));
+
+        long end = finishedAt > 0 ? finishedAt : System.currentTimeMillis();
+        long elapsedMs = startedAt > 0 ? end - startedAt : 0;
+
+        Map<String, Object> job = new LinkedHashMap<>();
+        job.put("id", id);
+        job.put("state", state);
+        job.put("connectionId", connectionId);
+        job.put("connectionName", connectionName);
+        job.put("topic", details.getTopic());
+        job.put("consumerGroupId", groupId);
+        job.put("from", fromMillis != null ? Instant.ofEpochMilli(fromMillis).toString() : null);
+        job.put("to", toMillis != null ? Instant.ofEpochMilli(toMillis).toString() : null);
+        job.put("createdAt", Instant.ofEpochMilli(createdAt).toString());
+        job.put("startedAt", startedAt > 0 ? Instant.ofEpochMilli(startedAt).toString() : null);
+        job.put("finishedAt", finishedAt > 0 ? Instant.ofEpochMilli(finishedAt).toString() : null);
+        job.put("records", records.get());
+        job.put("offsetsDone", done);
+        job.put("offsetsTotal", total);
+        job.put("progress", total > 0 ? (double) done / total : (state == State.COMPLETED ? 1.0 : 0.0));
+        job.put("recordsPerSecond", elapsedMs > 0 ? records.get() * 1000 / elapsedMs : 0);
+        job.put("partitions", partitions);
+        if (error != null) {
+            job.put("error", error);
+        }
+        return job;
+    }
+}
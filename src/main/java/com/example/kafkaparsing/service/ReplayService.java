@@ -0,0 +1,334 @@
+package com.example.kafkaparsing.service;
+
+import com.example.kafkaparsing.entity.DataSourceConnection;
+import com.example.kafkaparsing.model.KafkaConnectionDetails;
+import com.example.kafkaparsing.model.MessageEnvelope;
+import com.example.kafkaparsing.model.ReplayRequest;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replay jobs: reprocess a range of a connection's topic (after a field configuration change, say) next to
+ * the live consumers. Each job reads with its own consumer group and assigned partitions, so the live group
+ * is never rebalanced or moved. While jobs run the bulk indexer sends its largest bulks and index refresh
+ * is off; the last job to finish waits for the indexer to drain and turns refresh back on.
+ *
+ * Replayed records are processed but not forwarded, the live pipeline already forwarded them.
+ */
+@Service
+public class ReplayService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplayService.class);
+
+    // Finished jobs kept for the progress endpoint
+    private static final int RETAINED_FINISHED_JOBS = 50;
+
+    @Value("${audit.replay.max-concurrent-jobs:1}")
+    private int maxConcurrentJobs;
+
+    @Value("${audit.replay.max-poll-records:2000}")
+    private int maxPollRecords;
+
+    // How long a finished job waits for its documents to leave the indexer before handing off
+    @Value("${audit.replay.drain-timeout-seconds:300}")
+    private long drainTimeoutSeconds;
+
+    @Autowired
+    private DataSourceConnectionService dataSourceConnectionService;
+
+    @Autowired
+    private DynamicKafkaConsumerManager consumerManager;
+
+    @Autowired
+    private DynamicMessageProcessor dynamicMessageProcessor;
+
+    @Autowired
+    private ElasticsearchBulkIndexer bulkIndexer;
+
+    private final Map<UUID, ReplayJob> jobs = new ConcurrentHashMap<>();
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newFixedThreadPool(Math.max(1, maxConcurrentJobs), r -> {
+            Thread thread = new Thread(r, "replay-job");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ReplayJob job : jobs.values()) {
+            job.cancel();
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queue a replay job; jobs beyond max-concurrent-jobs wait for a free slot.
+     * Throws IllegalArgumentException for an unknown connection or a malformed range.
+     */
+    public Map<String, Object> startReplay(ReplayRequest request) {
+        if (request.getConnectionId() == null) {
+            throw new IllegalArgumentException("connectionId is required");
+        }
+        DataSourceConnection connection = dataSourceConnectionService.findKafkaConnection(request.getConnectionId())
+            .orElseThrow(() -> new IllegalArgumentException("Unknown Kafka connection " + request.getConnectionId()));
+        KafkaConnectionDetails details = dataSourceConnectionService.parseConnectionDetails(connection.getDetails());
+        if (!dataSourceConnectionService.validateConnectionDetails(details)) {
+            throw new IllegalArgumentException("Invalid connection details for " + connection.getConnectionName());
+        }
+
+        Long from = parseTimestamp("from", request.getFrom());
+        Long to = parseTimestamp("to", request.getTo());
+        if (from != null && to != null && from >= to) {
+            throw new IllegalArgumentException("from must be before to");
+        }
+
+        UUID jobId = UUID.randomUUID();
+        String groupId = request.getConsumerGroupId();
+        if (groupId == null || groupId.trim().isEmpty()) {
+            groupId = details.getConsumerGroupId() + "-replay-" + jobId.toString().substring(0, 8);
+        } else if (groupId.equals(details.getConsumerGroupId())) {
+            throw new IllegalArgumentException("A replay must not use the live consumer group " + groupId);
+        }
+
+        ReplayJob job = new ReplayJob(jobId, connection.getUniqueId(), connection.getConnectionName(), details, groupId,
+            from, to, request.getStartOffsets(), request.getEndOffsets());
+        pruneFinishedJobs();
+        jobs.put(job.getId(), job);
+        executor.execute(() -> run(job));
+
+        logger.info("⏪ Replay {} queued for connection '{}' (topic {}, group {})", job.getId(),
+            connection.getConnectionName(), details.getTopic(), groupId);
+        return job.toMap();
+    }
+
+    /**
+     * Ask a job to stop after its current batch; false if there is no such job
+     */
+    public boolean cancelReplay(UUID jobId) {
+        ReplayJob job = jobs.get(jobId);
+        if (job == null) {
+            return false;
+        }
+        job.cancel();
+        return true;
+    }
+
+    public Map<String, Object> getReplay(UUID jobId) {
+        ReplayJob job = jobs.get(jobId);
+        return job != null ? job.toMap() : null;
+    }
+
+    /**
+     * All known jobs, oldest first
+     */
+    public List<Map<String, Object>> getReplays() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (ReplayJob job : jobsByAge()) {
+            result.add(job.toMap());
+        }
+        return result;
+    }
+
+    private List<ReplayJob> jobsByAge() {
+        List<ReplayJob> sorted = new ArrayList<>(jobs.values());
+        sorted.sort(Comparator.comparingLong(ReplayJob::getCreatedAt));
+        return sorted;
+    }
+
+    private void pruneFinishedJobs() {
+        List<ReplayJob> finished = new ArrayList<>();
+        for (ReplayJob job : jobsByAge()) {
+            if (job.isFinished()) {
+                finished.add(job);
+            }
+        }
+        for (int i = 0; i < finished.size() - RETAINED_FINISHED_JOBS; i++) {
+            jobs.remove(finished.get(i).getId());
+        }
+    }
+
+    private static Long parseTimestamp(String name, String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return Instant.parse(value.trim()).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(name + " must be an ISO-8601 instant such as 2024-01-31T00:00:00Z");
+        }
+    }
+
+    private void run(ReplayJob job) {
+        if (job.isCancelRequested()) {
+            job.finished(ReplayJob.State.CANCELLED, null);
+            return;
+        }
+        job.started();
+        String topic = job.getDetails().getTopic();
+        logger.info("⏪ Replay {} started for connection '{}'", job.getId(), job.getConnectionName());
+
+        bulkIndexer.beginBulkLoad();
+        try {
+            try (Consumer<String, byte[]> consumer = consumerManager.createReplayConsumer(job.getDetails(), job.getGroupId(), maxPollRecords)) {
+                List<TopicPartition> partitions = new ArrayList<>();
+                for (PartitionInfo info : consumer.partitionsFor(topic)) {
+                    partitions.add(new TopicPartition(topic, info.partition()));
+                }
+                consume(job, consumer, partitions);
+            }
+
+            // Hand off: what this job queued is indexed (or spooled) before refresh comes back on
+            job.draining();
+            if (!bulkIndexer.awaitIdle(TimeUnit.SECONDS.toMillis(drainTimeoutSeconds))) {
+                logger.warn("⚠️ Replay {}: indexer still busy after {} s, handing off anyway", job.getId(), drainTimeoutSeconds);
+            }
+            job.finished(job.isCancelRequested() ? ReplayJob.State.CANCELLED : ReplayJob.State.COMPLETED, null);
+            logger.info("✅ Replay {} {}: {} records", job.getId(), job.getState(), job.getRecords());
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.finished(ReplayJob.State.CANCELLED, "interrupted");
+        } catch (Exception e) {
+            logger.error("❌ Replay {} failed: {}", job.getId(), e.getMessage(), e);
+            job.finished(ReplayJob.State.FAILED, e.getMessage());
+        } finally {
+            bulkIndexer.endBulkLoad();
+        }
+    }
+
+    /**
+     * Read each partition from its start to its end offset, processing every poll as one batch and
+     * committing the positions reached in the job's own group
+     */
+    private void consume(ReplayJob job, Consumer<String, byte[]> consumer, List<TopicPartition> partitions) {
+        Map<TopicPartition, Long> starts = resolveOffsets(consumer, partitions, job.getStartOffsets(), job.getFromMillis(), true);
+        Map<TopicPartition, Long> ends = resolveOffsets(consumer, partitions, job.getEndOffsets(), job.getToMillis(), false);
+
+        List<TopicPartition> active = new ArrayList<>();
+        for (TopicPartition partition : partitions) {
+            long start = starts.get(partition);
+            long end = ends.get(partition);
+            job.setRange(partition, start, Math.max(start, end));
+            if (start < end) {
+                active.add(partition);
+            }
+        }
+        consumer.assign(active);
+        for (TopicPartition partition : active) {
+            consumer.seek(partition, starts.get(partition));
+        }
+
+        StreamingFieldExtractor apiNameExtractor = consumerManager.createApiNameExtractor(job.getDetails());
+        while (!active.isEmpty() && !job.isCancelRequested()) {
+            ConsumerRecords<String, byte[]> records = consumer.poll(Duration.ofMillis(500));
+
+            List<MessageEnvelope> envelopes = new ArrayList<>(records.count());
+            for (TopicPartition partition : records.partitions()) {
+                long end = ends.get(partition);
+                for (ConsumerRecord<String, byte[]> record : records.records(partition)) {
+                    if (record.offset() >= end) {
+                        break;
+                    }
+                    MessageEnvelope envelope = consumerManager.createEnvelope(record, job.getConnectionName(), job.getDetails(), apiNameExtractor);
+                    // Old records must not share event-time clocks with the live consumers
+                    envelope.setClockScope("replay-" + job.getId());
+                    envelopes.add(envelope);
+                }
+            }
+            if (!envelopes.isEmpty()) {
+                dynamicMessageProcessor.processBatch(envelopes);
+                job.addRecords(envelopes.size());
+            }
+
+            Map<TopicPartition, OffsetAndMetadata> commits = new HashMap<>();
+            List<TopicPartition> done = new ArrayList<>();
+            for (TopicPartition partition : active) {
+                long position = Math.min(consumer.position(partition), ends.get(partition));
+                job.setPosition(partition, position);
+                commits.put(partition, new OffsetAndMetadata(position));
+                if (position >= ends.get(partition)) {
+                    done.add(partition);
+                }
+            }
+            consumer.commitSync(commits);
+            if (!done.isEmpty()) {
+                active.removeAll(done);
+                consumer.assign(active);
+            }
+        }
+    }
+
+    /**
+     * Offsets per partition from explicit offsets, else a timestamp, else the beginning (start) or the
+     * current end (end) of the partition; clamped to what the partition still holds
+     */
+    private static Map<TopicPartition, Long> resolveOffsets(Consumer<String, byte[]> consumer, Collection<TopicPartition> partitions,
+                                                            Map<Integer, Long> offsets, Long timestamp, boolean start) {
+        Map<TopicPartition, Long> beginnings = consumer.beginningOffsets(partitions);
+        Map<TopicPartition, Long> endings = consumer.endOffsets(partitions);
+
+        Map<TopicPartition, OffsetAndTimestamp> byTime = null;
+        if (timestamp != null) {
+            Map<TopicPartition, Long> query = new HashMap<>();
+            for (TopicPartition partition : partitions) {
+                query.put(partition, timestamp);
+            }
+            byTime = consumer.offsetsForTimes(query);
+        }
+
+        Map<TopicPartition, Long> resolved = new HashMap<>();
+        for (TopicPartition partition : partitions) {
+            long beginning = beginnings.get(partition);
+            long ending = endings.get(partition);
+            Long offset = offsets != null ? offsets.get(partition.partition()) : null;
+            if (offset == null && byTime != null) {
+                // No record at or after the timestamp: the range starts (or ends) at the current end
+                OffsetAndTimestamp found = byTime.get(partition);
+                offset = found != null ? found.offset() : ending;
+            }
+            if (offset == null) {
+                offset = start ? beginning : ending;
+            }
+            resolved.put(partition, Math.max(beginning, Math.min(offset, ending)));
+        }
+        return resolved;
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.kafkaparsing.service;
+
+import com.example.kafkaparsing.model.KafkaConnectionDetails;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One consumer client (listener container) shared by every connection with the same brokers, credentials,
+ * consumer group and listener settings. It subscribes to the topics of all of them, and each record is
+ * handed to the connection its topic belongs to.
+ *
+ * Owned by DynamicKafkaConsumerManager, which changes it only while holding its own lock.
+ */
+final class SharedConsumer {
+
+    private final UUID id;
+    private final String clientKey;
+    // Client-level settings are equal for every connection of this client (they are part of the key)
+    private final KafkaConnectionDetails settings;
+    private final ConsumerFactory<String, byte[]> consumerFactory;
+
+    // Connections by topic
+    private final Map<String, ConnectionHandler> handlers = new ConcurrentHashMap<>();
+
+    private ConcurrentMessageListenerContainer<String, byte[]> container;
+    private KeyOrderedLanes lanes;
+    private OffsetTracker tracker;
+
+    // Batch listeners in at-least-once mode commit themselves: next offset per partition, not yet committed
+    private final Map<TopicPartition, Long> pendingCommits = new ConcurrentHashMap<>();
+
+    SharedConsumer(String clientKey, KafkaConnectionDetails settings, ConsumerFactory<String, byte[]> consumerFactory) {
+        this.id = UUID.nameUUIDFromBytes(clientKey.getBytes(StandardCharsets.UTF_8));
+        this.clientKey = clientKey;
+        this.settings = settings;
+        this.consumerFactory = consumerFactory;
+    }
+
+    UUID getId() {
+        return id;
+    }
+
+    String getClientKey() {
+        return clientKey;
+    }
+
+    KafkaConnectionDetails getSettings() {
+        return settings;
+    }
+
+    ConsumerFactory<String, byte[]> getConsumerFactory() {
+        return consumerFactory;
+    }
+
+    ConnectionHandler getHandler(String topic) {
+        return handlers.get(topic);
+    }
+
+    ConnectionHandler getHandler(UUID connectionId) {
+        for (ConnectionHandler handler : handlers.values()) {
+            if (handler.connectionId.equals(connectionId)) {
+                return handler;
+            }
+        }
+        return null;
+    }
+
+    boolean hasTopic(String topic) {
+        return handlers.containsKey(topic);
+    }
+
+    void addHandler(ConnectionHandler handler) {
+        handlers.put(handler.details.getTopic(), handler);
+    }
+
+    void removeHandler(UUID connectionId) {
+        handlers.values().removeIf(handler -> handler.connectionId.equals(connectionId));
+    }
+
+    boolean hasHandlers() {
+        return !handlers.isEmpty();
+    }
+
+    String[] getTopics() {
+        return handlers.keySet().toArray(new String[0]);
+    }
+
+    /**
+     * Names of the connections sharing this client, used in logs and stats
+     */
+    String getName() {
+        List<String> names = new ArrayList<>();
+        for (ConnectionHandler handler : handlers.values()) {
+            names.add(handler.connectionName);
+        }
+        Collections.sort(names);
+        return String.join(", ", names);
+    }
+
+    ConcurrentMessageListenerContainer<String, byte[]> getContainer() {
+        return container;
+    }
+
+    void setContainer(ConcurrentMessageListenerContainer<String, byte[]> container) {
+        this.container = container;
+    }
+
+    KeyOrderedLanes getLanes() {
+        return lanes;
+    }
+
+    void setLanes(KeyOrderedLanes lanes) {
+        this.lanes = lanes;
+    }
+
+    OffsetTracker getTracker() {
+        return tracker;
+    }
+
+    void setTracker(OffsetTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    void offerCommit(TopicPartition partition, long nextOffset) {
+        pendingCommits.merge(partition, nextOffset, Math::max);
+    }
+
+    /**
+     * Remove and return the offsets waiting to be committed, for the given partitions or all if null
+     */
+    Map<TopicPartition, OffsetAndMetadata> takeCommits(Collection<TopicPartition> partitions) {
+        Map<TopicPartition, OffsetAndMetadata> commits = new HashMap<>();
+        for (TopicPartition partition : partitions != null ? partitions : new ArrayList<>(pendingCommits.keySet())) {
+            Long offset = pendingCommits.remove(partition);
+            if (offset != null) {
+                commits.put(partition, new OffsetAndMetadata(offset));
+            }
+        }
+        return commits;
+    }
+
+    /**
+     * What a record of one connection is processed with
+     */
+    static final class ConnectionHandler {
+        final UUID connectionId;
+        final String connectionName;
+        final KafkaConnectionDetails details;
+        // API name paths compiled once per connection, only set when some API uses streaming extraction
+        final StreamingFieldExtractor apiNameExtractor;
+
+        ConnectionHandler(UUID connectionId, String connectionName, KafkaConnectionDetails details,
+                          StreamingFieldExtractor apiNameExtractor) {
+            this.connectionId = connectionId;
+            this.connectionName = connectionName;
+            this.details = details;
+            this.apiNameExtractor = apiNameExtractor;
+        }
+    }
+}
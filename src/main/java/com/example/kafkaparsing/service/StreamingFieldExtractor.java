@@ -0,0 +1,252 @@
+package com.example.kafkaparsing.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pull-based alternative to reading dot notation paths from a JsonNode tree.
+ *
+ * The configured paths are compiled into a trie. A message is read token by token: subtrees no
+ * path goes through are skipped without building nodes, and extraction stops as soon as every
+ * path is resolved. Values follow the tree extractor's semantics ({@link ExtractionPlan#valueAt}):
+ * JSON null or a missing path gives null, objects and arrays give "", numbers and booleans their
+ * JsonNode text. One difference: for duplicate keys the first occurrence wins (the tree keeps the last).
+ */
+public final class StreamingFieldExtractor {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Node root;
+    private final int pathCount;
+    private final int nodeCount;
+
+    private StreamingFieldExtractor(Node root, int pathCount, int nodeCount) {
+        this.root = root;
+        this.pathCount = pathCount;
+        this.nodeCount = nodeCount;
+    }
+
+    /**
+     * Compile pre-split paths; values are returned in the same order
+     */
+    public static StreamingFieldExtractor compile(List<String[]> paths) {
+        Node root = new Node(0);
+        int nodeCount = 1;
+        for (int i = 0; i < paths.size(); i++) {
+            Node node = root;
+            node.pathCount++;
+            for (String segment : paths.get(i)) {
+                Node child = node.children.get(segment);
+                if (child == null) {
+                    child = new Node(nodeCount++);
+                    node.children.put(segment, child);
+                }
+                node = child;
+                node.pathCount++;
+            }
+            node.pathIndexes.add(i);
+        }
+        return new StreamingFieldExtractor(root, paths.size(), nodeCount);
+    }
+
+    /**
+     * Extract all paths from a JSON message, stopping once every path is resolved
+     */
+    public String[] extract(byte[] json) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            Scan scan = new Scan(pathCount, nodeCount);
+            if (parser.nextToken() == JsonToken.START_OBJECT && pathCount > 0) {
+                walk(parser, root, scan, true, null);
+            }
+            return scan.values;
+        }
+    }
+
+    /**
+     * Read a whole JSON document: extract all paths, note which of topLevelKeys the root object has,
+     * and where the root value ends. Fails like a tree parse on malformed input.
+     */
+    public DocumentScan scan(byte[] json, Set<String> topLevelKeys) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            Scan scan = new Scan(pathCount, nodeCount);
+            JsonToken first = parser.nextToken();
+            if (first != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                return new DocumentScan(scan.values, false, 0, false, (int) parser.getCurrentLocation().getByteOffset());
+            }
+            walk(parser, root, scan, false, topLevelKeys);
+            return new DocumentScan(scan.values, true, scan.topLevelFields, scan.topLevelKeyFound,
+                (int) parser.getCurrentLocation().getByteOffset());
+        }
+    }
+
+    /**
+     * Walk the object the parser is positioned on (START_OBJECT). Returns true when stopped early.
+     */
+    private boolean walk(JsonParser parser, Node node, Scan scan, boolean stopEarly, Set<String> topLevelKeys) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+
+            if (topLevelKeys != null) {
+                scan.topLevelFields++;
+                if (topLevelKeys.contains(name)) {
+                    scan.topLevelKeyFound = true;
+                }
+            }
+
+            Node child = node.children.get(name);
+            if (child == null || scan.visited[child.id]) {
+                parser.skipChildren();
+                continue;
+            }
+            scan.visited[child.id] = true;
+
+            if (!child.pathIndexes.isEmpty()) {
+                String value = valueText(parser, token);
+                for (int index : child.pathIndexes) {
+                    scan.values[index] = value;
+                }
+            }
+
+            int remainingBefore = scan.remaining;
+            if (token == JsonToken.START_OBJECT && !child.children.isEmpty()) {
+                if (walk(parser, child, scan, stopEarly, null)) {
+                    return true;
+                }
+            } else {
+                // Arrays and scalars have no named children, deeper paths resolve to null
+                parser.skipChildren();
+            }
+
+            // Every path through this key is now resolved, found or not
+            scan.remaining = remainingBefore - child.pathCount;
+            if (stopEarly && scan.remaining == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Same text JsonNode.asText() gives for the node Jackson would build from this token
+     */
+    private static String valueText(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                switch (parser.getNumberType()) {
+                    case INT:
+                        return Integer.toString(parser.getIntValue());
+                    case LONG:
+                        return Long.toString(parser.getLongValue());
+                    default:
+                        return parser.getBigIntegerValue().toString();
+                }
+            case VALUE_NUMBER_FLOAT:
+                switch (parser.getNumberType()) {
+                    case BIG_DECIMAL:
+                        return parser.getDecimalValue().toString();
+                    case FLOAT:
+                        return Float.toString(parser.getFloatValue());
+                    default:
+                        return Double.toString(parser.getDoubleValue());
+                }
+            case VALUE_TRUE:
+                return "true";
+            case VALUE_FALSE:
+                return "false";
+            case START_OBJECT:
+            case START_ARRAY:
+                return "";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Result of {@link #scan}
+     */
+    public static final class DocumentScan {
+
+        private final String[] values;
+        private final boolean object;
+        private final int topLevelFields;
+        private final boolean topLevelKeyFound;
+        private final int end;
+
+        private DocumentScan(String[] values, boolean object, int topLevelFields, boolean topLevelKeyFound, int end) {
+            this.values = values;
+            this.object = object;
+            this.topLevelFields = topLevelFields;
+            this.topLevelKeyFound = topLevelKeyFound;
+            this.end = end;
+        }
+
+        public String[] getValues() {
+            return values;
+        }
+
+        /**
+         * Whether the root value is a JSON object
+         */
+        public boolean isObject() {
+            return object;
+        }
+
+        public int getTopLevelFields() {
+            return topLevelFields;
+        }
+
+        /**
+         * Whether the root object has any of the requested top-level keys
+         */
+        public boolean isTopLevelKeyFound() {
+            return topLevelKeyFound;
+        }
+
+        /**
+         * Byte offset just past the root value
+         */
+        public int getEnd() {
+            return end;
+        }
+    }
+
+    private static final class Scan {
+
+        private final String[] values;
+        private final boolean[] visited;
+        private int remaining;
+        private int topLevelFields;
+        private boolean topLevelKeyFound;
+
+        private Scan(int pathCount, int nodeCount) {
+            this.values = new String[pathCount];
+            this.visited = new boolean[nodeCount];
+            this.remaining = pathCount;
+        }
+    }
+
+    private static final class Node {
+
+        private final int id;
+        private final Map<String, Node> children = new HashMap<>();
+        private final List<Integer> pathIndexes = new ArrayList<>(1);
+        // Number of paths ending at or below this node
+        private int pathCount;
+
+        private Node(int id) {
+            this.id = id;
+        }
+    }
+}